@@ -13,6 +13,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.AbstractMojo;
@@ -20,8 +24,8 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 
-import jflex.Main;
-import jflex.Options;
+import jflex.Generator;
+import jflex.GeneratorOptions;
 
 /**
  * Generates lexical scanners from one or more <a href="http://jflex.de/">JFlex</a>
@@ -166,11 +170,20 @@ public class JFlexMojo extends AbstractMojo {
 	 */
 	private boolean emitScala = true;
 
+	/**
+	 * The number of lexer files to generate concurrently. With more than
+	 * one thread, the JFlex messages for each file are collected and
+	 * printed in the order of the files once the file is generated.
+	 *
+	 * @parameter expression="${jflex.threads}" default-value="1"
+	 */
+	private int threads = 1;
+
   /**
 	 * Generate java parsers from lexer definition files.
 	 *
 	 * This methods is checks parameters, sets options and calls
-	 * JFlex.Main.generate()
+	 * jflex.Generator.generate() for each lexer file
 	 */
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		this.outputDirectory = getAbsolutePath(this.outputDirectory);
@@ -197,10 +210,12 @@ public class JFlexMojo extends AbstractMojo {
 					+ " jflex files or directories given in configuration");
 		}
 		// process all lexDefinitions
+		List<GenerationTask> tasks = new ArrayList<GenerationTask>();
 		for (File lexDefinition : filesIt) {
 			lexDefinition = getAbsolutePath(lexDefinition);
-			parseLexDefinition(lexDefinition);
+			parseLexDefinition(lexDefinition, tasks);
 		}
+		generate(tasks);
 	}
 
 	/**
@@ -211,12 +226,14 @@ public class JFlexMojo extends AbstractMojo {
 	 * 
 	 * @param lexDefinition
 	 *            Lexer definiton file or directory to process.
+	 * @param tasks
+	 *            list to add the lexer files to that need to be generated
 	 * @throws MojoFailureException
 	 *             if the file is not found.
 	 * @throws MojoExecutionException
 	 */
 	@SuppressWarnings("unchecked")
-	private void parseLexDefinition(File lexDefinition)
+	private void parseLexDefinition(File lexDefinition, List<GenerationTask> tasks)
 			throws MojoFailureException, MojoExecutionException {
 		assert lexDefinition.isAbsolute() : lexDefinition;
 
@@ -229,14 +246,14 @@ public class JFlexMojo extends AbstractMojo {
 					extensions, true);
 			while (fileIterator.hasNext()) {
 				File lexFile = fileIterator.next();
-				parseLexFile(lexFile);
+				parseLexFile(lexFile, tasks);
 			}
 		} else {
-			parseLexFile(lexDefinition);
+			parseLexFile(lexDefinition, tasks);
 		}
 	}
 
-	private void parseLexFile(File lexFile) throws MojoFailureException,
+	private void parseLexFile(File lexFile, List<GenerationTask> tasks) throws MojoFailureException,
 			MojoExecutionException {
 		assert lexFile.isAbsolute() : lexFile;
 
@@ -266,27 +283,28 @@ public class JFlexMojo extends AbstractMojo {
 		}
 
 		/*
-		 * set options. Very strange that JFlex expects this in a static way.
+		 * set options. Each file gets its own copy, so that files can be
+		 * generated concurrently.
 		 */
-		Options.setDefaults();
-		Options.setDir(generatedFile.getParentFile());
-		Options.dump = dump;
-		Options.verbose = verbose;
-		Options.unused_warning = unusedWarning;
-		Options.dot = dot;
-    	Options.legacy_dot = legacyDot;
-    	Options.emitInputStreamCtor = inputStreamCtor;
+		GeneratorOptions options = new GeneratorOptions();
+		options.setDir(generatedFile.getParentFile());
+		options.dump = dump;
+		options.verbose = verbose;
+		options.unused_warning = unusedWarning;
+		options.dot = dot;
+		options.legacy_dot = legacyDot;
+		options.emitInputStreamCtor = inputStreamCtor;
 
-		Options.emitScala = emitScala;
+		options.emitScala = emitScala;
 
 		if (skeleton != null) {
 			if(emitScala) getLog().warn("Using the default Scala skeleton, custom skeletons not currently supported");
-			Options.setSkeleton(skeleton);
+			options.setSkeleton(skeleton);
 		}
 
-		Options.jlex = jlex;
-		Options.no_minimize = !minimize; // NOPMD
-		Options.no_backup = !backup;     // NOPMD
+		options.jlex = jlex;
+		options.no_minimize = !minimize; // NOPMD
+		options.no_backup = !backup;     // NOPMD
 		if ("pack".equals(generationMethod)) {
 			/* no-op - there is only one generation method */
 		} else {
@@ -294,11 +312,117 @@ public class JFlexMojo extends AbstractMojo {
 					+ generationMethod);
 		}
 
-		try {
-			Main.generate(lexFile);
-			getLog().info("  generated " + generatedFile);
-		} catch (Exception e) {
-			throw new MojoExecutionException(e.getMessage(), e);
+		tasks.add(new GenerationTask(lexFile, generatedFile, options));
+	}
+
+	/**
+	 * Generates the scanners for the specified lexer files, with up to
+	 * {@code threads} files at the same time.
+	 *
+	 * JFlex messages are printed per file in the order of the files,
+	 * followed by the generation time of each file.
+	 *
+	 * @param tasks
+	 *            the lexer files to generate
+	 * @throws MojoExecutionException
+	 *             if a scanner could not be generated
+	 */
+	private void generate(List<GenerationTask> tasks)
+			throws MojoExecutionException {
+		if (threads <= 1 || tasks.size() <= 1) {
+			for (GenerationTask task : tasks) {
+				task.messages = System.out;
+				task.run();
+				report(task);
+			}
+		} else {
+			int numThreads = Math.min(threads, tasks.size());
+			getLog().debug("Generating " + tasks.size() + " lexer files with "
+					+ numThreads + " threads");
+
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				List<Future<?>> results = new ArrayList<Future<?>>(tasks.size());
+				for (GenerationTask task : tasks) {
+					task.messages = new ByteArrayOutputStream();
+					results.add(executor.submit(task));
+				}
+
+				for (int i = 0; i < tasks.size(); i++) {
+					GenerationTask task = tasks.get(i);
+					try {
+						results.get(i).get();
+					} catch (InterruptedException e) {
+						throw new MojoExecutionException("Interrupted while generating "
+								+ task.lexFile, e);
+					} catch (ExecutionException e) {
+						task.failure = e.getCause();
+					}
+					((ByteArrayOutputStream) task.messages).writeTo(System.out);
+					System.out.flush();
+					report(task);
+				}
+			} catch (IOException e) {
+				throw new MojoExecutionException(e.getMessage(), e);
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		if (!tasks.isEmpty()) {
+			getLog().info("Generation time per lexer file:");
+			for (GenerationTask task : tasks) {
+				getLog().info("  " + task.lexFile.getName() + ": "
+						+ task.millis + " ms");
+			}
+		}
+	}
+
+	/**
+	 * Logs the result of generating one lexer file.
+	 *
+	 * @throws MojoExecutionException
+	 *             if the scanner could not be generated
+	 */
+	private void report(GenerationTask task) throws MojoExecutionException {
+		if (task.failure != null) {
+			throw new MojoExecutionException(task.failure.getMessage(), task.failure);
+		}
+		getLog().info("  generated " + task.generatedFile);
+	}
+
+	/**
+	 * A lexer file to generate, with its own options.
+	 */
+	private static class GenerationTask implements Runnable {
+		final File lexFile;
+		final File generatedFile;
+		final GeneratorOptions options;
+
+		/** where JFlex messages go */
+		OutputStream messages;
+
+		/** the exception generation failed with, null on success */
+		Throwable failure;
+
+		/** the time generation took */
+		long millis;
+
+		GenerationTask(File lexFile, File generatedFile, GeneratorOptions options) {
+			this.lexFile = lexFile;
+			this.generatedFile = generatedFile;
+			this.options = options;
+		}
+
+		public void run() {
+			long start = System.currentTimeMillis();
+			try {
+				Generator.generate(lexFile, options, messages);
+			} catch (Exception e) {
+				failure = e;
+			} finally {
+				millis = System.currentTimeMillis() - start;
+			}
 		}
 	}
 
@@ -119,4 +119,21 @@ public class JFlexMojoTest extends AbstractMojoTestCase {
 		assertTrue("produced file is a file: " + produced, produced.isFile());
 	}
 
+	/**
+	 * Tests configuration with two input files generated concurrently.
+	 *
+	 * @throws Exception
+	 */
+	public void testParallel() throws Exception {
+		JFlexMojo mojo = newMojo("parallel-test");
+		mojo.execute();
+
+		File produced = getExpectedOutputFile(mojo);
+		assertTrue("produced file is a file: " + produced, produced.isFile());
+
+		File second = new File(produced.getParentFile(),
+				"JAMWikiPreProcessor2.java");
+		assertTrue("produced file is a file: " + second, second.isFile());
+	}
+
 }
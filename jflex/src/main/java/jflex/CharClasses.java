@@ -9,10 +9,17 @@
 
 package jflex;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
+ * A partition of the input characters into classes of characters that
+ * the specification does not distinguish.
+ *
+ * The sets passed to <code>makeClass</code> are only recorded. The
+ * partition is computed when it is first needed, from the boundaries
+ * of all recorded sets (see {@link #partition()}).
  *
  * @author Gerwin Klein
  * @version JFlex 1.7.0-SNAPSHOT
@@ -25,9 +32,30 @@ public class CharClasses {
   /** the largest character that can be used in char classes */
   public static final int maxChar = 0x10FFFF;
 
-  /** the char classes */
+  /** the char classes, valid if <code>sets</code> is not newer */
   private List<IntCharSet> classes;
 
+  /** the sets that were made a class, in order */
+  private List<IntCharSet> sets;
+
+  /** true if sets were recorded after the classes were computed */
+  private boolean changed;
+
+  /** 
+   * index of the classes: the first character of each maximal interval
+   * of characters in the same class, ordered 
+   */
+  private int [] intervalStart;
+
+  /** the class of each interval in intervalStart */
+  private int [] intervalClass;
+
+  /** the number of intervals in the index */
+  private int numIntervals;
+
+  /** the largest character in the char classes */
+  private int lastChar;
+
   /** the largest character actually used in a specification */
   private int maxCharUsed;
   
@@ -65,9 +93,10 @@ public class CharClasses {
     }
 
     maxCharUsed = maxCharCode;
+    lastChar = maxCharCode;
     this.scanner = scanner;
-    classes = new ArrayList<IntCharSet>();
-    classes.add(new IntCharSet(new Interval(0, maxCharCode)));
+    sets = new ArrayList<IntCharSet>();
+    changed = true;
   }
 
 
@@ -102,6 +131,7 @@ public class CharClasses {
    * Returns the current number of character classes.
    */
   public int getNumClasses() {
+    partition();
     return classes.size();
   }
 
@@ -120,42 +150,114 @@ public class CharClasses {
   public void makeClass(IntCharSet set, boolean caseless) {
     if (caseless) set = set.getCaseless(scanner.getUnicodeProperties());
 
-    if ( DEBUG ) {
-      Out.dump("makeClass("+set+")");
-      dump();
-    }
-
-    int oldSize = classes.size();
-    for (int i = 0; i < oldSize; i++) {
-      IntCharSet x  = classes.get(i);
-
-      if (x.equals(set)) return;
+    if ( DEBUG ) Out.dump("makeClass("+set+")");
 
-      IntCharSet and = x.and(set);
+    sets.add(set.copy());
+    changed = true;
+  }
+  
 
-      if ( and.containsElements() ) {
-        if ( x.equals(and) ) {          
-          set.sub(and);
-          continue;
+  /**
+   * Computes the char classes from the recorded sets.
+   *
+   * The boundaries of all sets split the characters into elementary
+   * intervals, whose characters no set distinguishes. The sets are then
+   * applied in order to the elementary intervals: each class that a set
+   * contains partly keeps its code for the part outside the set, the 
+   * part inside gets the next free code (in the order of the classes 
+   * split). This numbers the classes the same way as refining the 
+   * partition set by set, but only touches the elementary intervals 
+   * of each set instead of intersecting it with every class.
+   */
+  private void partition() {
+    if (!changed) return;
+    changed = false;
+
+    // boundaries: first character of each elementary interval
+    int [] bounds = new int [16];
+    int numBounds = 0;
+    bounds[numBounds++] = 0;
+    for (IntCharSet set : sets) {
+      for (Interval iv : set.getIntervals()) {
+        if (iv.start > lastChar) break;
+        if (numBounds + 2 > bounds.length) {
+          int [] larger = new int [2 * bounds.length];
+          System.arraycopy(bounds, 0, larger, 0, numBounds);
+          bounds = larger;
         }
-        else if ( set.equals(and) ) {
-          x.sub(and);
-          classes.add(and);
-          if (DEBUG) {
-            Out.dump("makeClass(..) finished");
-            dump();
-          }
-          return;
+        bounds[numBounds++] = iv.start;
+        if (iv.end < lastChar) bounds[numBounds++] = iv.end + 1;
+      }
+    }
+    Arrays.sort(bounds, 0, numBounds);
+    int numElems = 0;
+    for (int i = 0; i < numBounds; i++) 
+      if (numElems == 0 || bounds[i] != bounds[numElems-1]) bounds[numElems++] = bounds[i];
+
+    int [] classOf = new int [numElems];  // class code of each elementary interval
+    int [] size    = new int [numElems];  // number of elementary intervals in each class
+    int [] count   = new int [numElems];  // elementary intervals of a class in the current set
+    int [] target  = new int [numElems];  // new code of the split off part of a class
+    int [] elems   = new int [numElems];  // the elementary intervals of the current set
+    int [] touched = new int [numElems];  // the classes of the current set
+    int numClasses = 1;
+    size[0] = numElems;
+    Arrays.fill(target, -1);
+
+    for (IntCharSet set : sets) {
+      int numSetElems = 0;
+      int numTouched = 0;
+      for (Interval iv : set.getIntervals()) {
+        if (iv.start > lastChar) break;
+        int e = Arrays.binarySearch(bounds, 0, numElems, iv.start);
+        for (; e < numElems && bounds[e] <= iv.end; e++) {
+          elems[numSetElems++] = e;
+          if (count[classOf[e]]++ == 0) touched[numTouched++] = classOf[e];
         }
+      }
+
+      Arrays.sort(touched, 0, numTouched);
+      for (int i = 0; i < numTouched; i++) {
+        int c = touched[i];
+        if (count[c] < size[c]) target[c] = numClasses++;
+      }
+
+      for (int i = 0; i < numSetElems; i++) {
+        int e = elems[i];
+        int c = classOf[e];
+        if (target[c] < 0) continue;
+        classOf[e] = target[c];
+        size[c]--;
+        size[target[c]]++;
+      }
 
-        set.sub(and);
-        x.sub(and);
-        classes.add(and);
+      for (int i = 0; i < numTouched; i++) {
+        count[touched[i]] = 0;
+        target[touched[i]] = -1;
       }
     }
-    
+
+    classes = new ArrayList<IntCharSet>(numClasses);
+    for (int c = 0; c < numClasses; c++) 
+      classes.add(new IntCharSet());
+
+    intervalStart = new int [numElems];
+    intervalClass = new int [numElems];
+    numIntervals = 0;
+
+    for (int e = 0; e < numElems; ) {
+      int c = classOf[e];
+      int start = bounds[e];
+      while (++e < numElems && classOf[e] == c) ;
+      int end = e < numElems ? bounds[e] - 1 : lastChar;
+      classes.get(c).add(new Interval(start, end));
+      intervalStart[numIntervals] = start;
+      intervalClass[numIntervals] = c;
+      numIntervals++;
+    }
+
     if (DEBUG) {
-      Out.dump("makeClass(..) finished");
+      Out.dump("partition() finished");
       dump();
     }
   }
@@ -165,11 +267,19 @@ public class CharClasses {
    * Returns the code of the character class the specified character belongs to.
    */
   public int getClassCode(int codePoint) {
-    int i = -1;
-    while (true) {
-      IntCharSet x = classes.get(++i);
-      if ( x.contains(codePoint) ) return i;      
+    partition();
+
+    // last interval that starts at or before codePoint
+    int low = 0;
+    int high = numIntervals - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (intervalStart[mid] <= codePoint)
+        low = mid;
+      else
+        high = mid - 1;
     }
+    return intervalClass[low];
   }
 
   /**
@@ -186,6 +296,7 @@ public class CharClasses {
    * @param theClass  the index of the class to
    */
   public String toString(int theClass) {
+    partition();
     return classes.get(theClass).toString();
   }
 
@@ -197,6 +308,7 @@ public class CharClasses {
    * Enumerates the classes by index.
    */
   public String toString() {
+    partition();
     StringBuilder result = new StringBuilder("CharClasses:");
 
     result.append(Out.NL);
@@ -282,6 +394,7 @@ public class CharClasses {
         Out.dump("[negated]");
     }
 
+    partition();
     int size = classes.size();
 
     // [fixme: optimize]
@@ -346,6 +459,7 @@ public class CharClasses {
    * have a class assigned.
    */
   public void check() {
+    partition();
     for (int i = 0; i < classes.size(); i++)
       for (int j = i+1; j < classes.size(); j++) {
         IntCharSet x = classes.get(i);
@@ -379,24 +493,13 @@ public class CharClasses {
    * char class it belongs to.
    */
   public CharClassInterval [] getIntervals() {
-    int i, c;
-    int size = classes.size();
-    int numIntervals = 0;   
-
-    for (i = 0; i < size; i++) 
-      numIntervals+= (classes.get(i)).numIntervals();    
+    partition();
 
     CharClassInterval [] result = new CharClassInterval[numIntervals];
-    
-    i = 0; 
-    c = 0;
-    while (i < numIntervals) {
-      int       code = getClassCode(c);
-      IntCharSet set = classes.get(code);
-      Interval    iv = set.getNext();
-      
-      result[i++]    = new CharClassInterval(iv.start, iv.end, code);
-      c              = iv.end+1;
+
+    for (int i = 0; i < numIntervals; i++) {
+      int end = i+1 < numIntervals ? intervalStart[i+1] - 1 : lastChar;
+      result[i] = new CharClassInterval(intervalStart[i], end, intervalClass[i]);
     }
 
     return result;
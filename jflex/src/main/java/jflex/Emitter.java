@@ -37,6 +37,20 @@ public abstract class Emitter {
   // bit masks for state attributes
   static final protected int FINAL = 1;
   static final protected int NOLOOK = 8;
+  /** the state skips over input it loops on in a tight loop, see findSelfLoops() */
+  static final protected int SELF_LOOP = 16;
+
+  /** 
+   * Self loops on at most this many character ranges are tested range
+   * by range, larger ones with a bitmap of their ASCII part.
+   */
+  static final private int SELF_LOOP_RANGES = 4;
+
+  /**
+   * HotSpot does not JIT compile methods with more bytes of bytecode
+   * than this (-XX:HugeMethodLimit).
+   */
+  static final protected int HUGE_METHOD_LIMIT = 8000;
 
   protected File inputFile;
 
@@ -47,16 +61,38 @@ public abstract class Emitter {
   protected DFA dfa;
 
   protected boolean isTransition[];
+
+  /** 
+   * For each DFA state, the test for characters zzC that the state
+   * loops on, null if the state is not accelerated.
+   */
+  protected String selfLoopTest[];
+
+  /** If true, the DFA transitions are emitted as code (%codegen direct) */
+  protected boolean direct;
+  /** estimated bytecode size of the transitions for %codegen direct */
+  protected int directSize;
   
   // for row killing:
   protected int numRows;
   protected int [] rowMap;
   protected boolean [] rowKilled;
+
+  // for row displacement packing:
+  /** base offset of each row in combNext/combCheck */
+  protected int [] rowBase;
+  /** overlaid rows of the transition table */
+  protected int [] combNext;
+  /** base offset of the row that owns an entry of combNext, 0 for none */
+  protected int [] combCheck;
   
   // for col killing:
   protected int numCols;
   protected int [] colMap;
   protected boolean [] colKilled;
+
+  /** time spent in reduceTable() */
+  protected Timer reduceTime;
   
 
   /** maps actions to their switch label */
@@ -64,6 +100,19 @@ public abstract class Emitter {
 
   protected CharClassInterval [] intervals;
 
+  // for the two-level character map:
+  static final protected int CMAP_BLOCK_BITS = 8;
+  static final protected int CMAP_BLOCK_SIZE = 1 << CMAP_BLOCK_BITS;
+  /** 
+   * characters below this have their own dense map next to the 
+   * two-level one, they are looked up without the top-level indirection 
+   */
+  static final protected int CMAP_ASCII = 0x80;
+  /** block number for each block of CMAP_BLOCK_SIZE characters */
+  protected int [] cmapTop;
+  /** column codes of all distinct blocks, one block after another */
+  protected int [] cmapBlocks;
+
   /**
    * Computes base name of the class name. Needs to take into account generics.
    *
@@ -83,7 +132,8 @@ public abstract class Emitter {
   
 
   /**
-   * Constructs a file in Options.getDir() or in the same directory as
+   * Constructs a file in the output directory of the current generator
+   * run (see {@link GeneratorOptions#getDir()}) or in the same directory as
    * another file. Makes a backup if the file already exists.
    *
    * @param name  the name (without path) of the file
@@ -92,17 +142,18 @@ public abstract class Emitter {
    * @return The constructed File
    */
   public static File normalize(String name, File input) {
+    GeneratorOptions options = GeneratorContext.options();
     File outputFile;
 
-    if ( Options.getDir() == null ) 
+    if ( options.getDir() == null ) 
       if ( input == null || input.getParent() == null )
         outputFile = new File(name);
       else
         outputFile = new File(input.getParent(), name);
     else 
-      outputFile = new File(Options.getDir(), name);
+      outputFile = new File(options.getDir(), name);
         
-    if ( outputFile.exists() && !Options.no_backup ) {      
+    if ( outputFile.exists() && !options.no_backup ) {      
       File backup = new File( outputFile.toString()+"~" );
       
       if ( backup.exists() ) backup.delete();
@@ -156,6 +207,15 @@ public abstract class Emitter {
     return dfa.lookaheadUsed;
   }
   
+  /**
+   * Returns the condition that there is no more input after the end 
+   * of the buffer. Scanners with %inmemory have no reader while they
+   * scan in-memory input, and never refill the buffer then.
+   */
+  protected String atEOF() {
+    return scanner.inMemory ? "zzAtEOF || zzReader == null" : "zzAtEOF";
+  }
+
   protected abstract void emitLookBuffer();
   
   protected abstract void emitScanError();
@@ -207,6 +267,59 @@ public abstract class Emitter {
    */
   protected abstract int emitCharMapArray();
 
+  /**
+   * Returns true if the character map is emitted as a two-level
+   * table (top-level block index plus distinct blocks) instead of
+   * a flat array.
+   */
+  protected boolean isPagedCharMap() {
+    return parser.getCharClasses().getMaxCharCode() >= 256;
+  }
+
+  /**
+   * Splits the (column reduced) character map into blocks of
+   * CMAP_BLOCK_SIZE characters and keeps each distinct block only once.
+   *
+   * Afterwards, the class of character c is
+   * <code>cmapBlocks[cmapTop[c >> CMAP_BLOCK_BITS] * CMAP_BLOCK_SIZE + (c & (CMAP_BLOCK_SIZE-1))]</code>.
+   */
+  protected void reduceCharMap() {
+    CharClasses cl = parser.getCharClasses();
+    intervals = cl.getIntervals();
+
+    int numBlocks = (cl.getMaxCharCode() + CMAP_BLOCK_SIZE) / CMAP_BLOCK_SIZE;
+    cmapTop = new int [numBlocks];
+
+    Map<String,Integer> blockNumbers = new HashMap<String,Integer>();
+    StringBuilder blocks = new StringBuilder();
+    char [] block = new char [CMAP_BLOCK_SIZE];
+
+    int i = 0; // current interval
+    for (int b = 0; b < numBlocks; b++) {
+      int c = b * CMAP_BLOCK_SIZE;
+      for (int k = 0; k < CMAP_BLOCK_SIZE; k++, c++) {
+        while (intervals[i].end < c && i < intervals.length-1) i++;
+        block[k] = intervals[i].end < c ? 0 : (char) colMap[intervals[i].charClass];
+      }
+
+      String key = new String(block);
+      Integer number = blockNumbers.get(key);
+      if (number == null) {
+        number = blockNumbers.size();
+        blockNumbers.put(key, number);
+        blocks.append(block);
+      }
+      cmapTop[b] = number;
+    }
+
+    cmapBlocks = new int [blocks.length()];
+    for (int k = 0; k < cmapBlocks.length; k++)
+      cmapBlocks[k] = blocks.charAt(k);
+
+    Out.dump(ErrorMessages.get(ErrorMessages.CMAP_BLOCKS, String.valueOf(numBlocks),
+                               String.valueOf(blockNumbers.size())));
+  }
+
 
   /**
    * Print number as octal/unicode escaped string character.
@@ -308,6 +421,201 @@ public abstract class Emitter {
     }
   }
   
+  /**
+   * Returns the attributes of a DFA state (FINAL, NOLOOK, and SELF_LOOP 
+   * bits). Needs findActionStates() and findSelfLoops().
+   */
+  protected int attribute(int state) {
+    int attribute = dfa.isFinal[state] ? FINAL : 0;
+    if (!isTransition[state]) attribute |= NOLOOK;
+    if (selfLoopTest[state] != null) attribute |= SELF_LOOP;
+    return attribute;
+  }
+
+  /**
+   * Finds the DFA states with a transition to themselves and builds the
+   * test for the characters of these transitions. The lexer method 
+   * skips over runs of such characters in a tight loop instead of
+   * looking up each transition (whitespace, comment bodies, identifiers).
+   *
+   * Only characters that are a code point on their own are tested
+   * (BMP without surrogates, ASCII for %utf8), other input goes through
+   * the transition table as usual.
+   */
+  protected void findSelfLoops() {
+    selfLoopTest = new String [dfa.numStates];
+
+    int max = scanner.utf8 ? 0x7F : 0xFFFF;
+    CharClassInterval [] classIntervals = parser.getCharClasses().getIntervals();
+
+    for (int s = 0; s < dfa.numStates; s++) {
+      List<int[]> ranges = new ArrayList<int[]>();
+
+      for (CharClassInterval iv : classIntervals) {
+        if (dfa.table[s][iv.charClass] != s || iv.start > max) continue;
+        int end = Math.min(iv.end, max);
+        if (iv.start < 0xD800) 
+          addRange(ranges, iv.start, Math.min(end, 0xD7FF));
+        if (end > 0xDFFF) 
+          addRange(ranges, Math.max(iv.start, 0xE000), end);
+      }
+
+      if (ranges.isEmpty()) continue;
+
+      if (ranges.size() <= SELF_LOOP_RANGES) 
+        selfLoopTest[s] = rangeTest(ranges);
+      else 
+        selfLoopTest[s] = asciiTest(ranges);
+    }
+  }
+
+  /**
+   * Adds a character range to a sorted list of ranges, merges it with
+   * the last range if they are adjacent.
+   */
+  private static void addRange(List<int[]> ranges, int start, int end) {
+    if (start > end) return;
+    int [] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+    if (last != null && last[1] + 1 == start) 
+      last[1] = end;
+    else
+      ranges.add(new int [] { start, end });
+  }
+
+  /**
+   * Returns a test of zzC against each of the ranges. The test is 
+   * valid Java and Scala.
+   */
+  private String rangeTest(List<int[]> ranges) {
+    StringBuilder test = new StringBuilder();
+    for (int [] range : ranges) {
+      if (test.length() > 0) test.append(" || ");
+      if (range[0] == range[1]) {
+        test.append("zzC == ").append(charLiteral(range[0]));
+      }
+      else {
+        test.append("zzC >= ").append(charLiteral(range[0]));
+        test.append(" && zzC <= ").append(charLiteral(range[1]));
+      }
+    }
+    return test.toString();
+  }
+
+  /**
+   * Returns a test of zzC against a bitmap of the ASCII characters in
+   * the ranges, null if there are none. The test is valid Java and Scala.
+   */
+  private String asciiTest(List<int[]> ranges) {
+    long low = 0;
+    long high = 0;
+    for (int [] range : ranges) {
+      for (int c = range[0]; c <= range[1] && c < 128; c++) {
+        if (c < 64) low |= 1L << c;
+        else high |= 1L << (c - 64);
+      }
+    }
+    if (low == 0 && high == 0) return null;
+
+    String sign = scanner.utf8 ? "zzC >= 0 && " : "";
+    return sign + "zzC < 64 && (0x" + Long.toHexString(low) + "L >>> zzC & 1) != 0 || " 
+      + "zzC >= 64 && zzC < 128 && (0x" + Long.toHexString(high) + "L >>> (zzC - 64) & 1) != 0";
+  }
+
+  /**
+   * Returns a character as literal in a test of zzC, printable ASCII 
+   * as char literal, others as number.
+   */
+  private static String charLiteral(int c) {
+    if (c > ' ' && c < 127 && c != '\\' && c != '\'') return "'" + (char) c + "'";
+    return c < 128 ? String.valueOf(c) : "0x" + Integer.toHexString(c);
+  }
+
+  /**
+   * Decides if the DFA transitions are emitted as code for %codegen direct.
+   * Uses tables instead if the DFA has more than the configured number
+   * of states or the code would be too large for the JIT. Needs 
+   * reduceTable() and findActionStates().
+   */
+  protected void setupDirect() {
+    direct = false;
+    if (!scanner.direct) return;
+
+    if (dfa.numStates > scanner.directMaxStates) {
+      Out.println(ErrorMessages.get(ErrorMessages.DIRECT_TOO_MANY_STATES,
+                                    String.valueOf(dfa.numStates),
+                                    String.valueOf(scanner.directMaxStates)));
+      return;
+    }
+
+    int size = 0;
+    for (int s = 0; s < dfa.numStates; s++) {
+      if (!isTransition[s]) continue;
+      Map<Integer,List<Integer>> targets = directTransitions(s);
+      // case of the state, inner switch, and one block per target
+      size += 20;
+      for (List<Integer> cols : targets.values())
+        size += 12 + 8 * cols.size();
+    }
+
+    if (size > HUGE_METHOD_LIMIT/2) {
+      Out.println(ErrorMessages.DIRECT_TOO_BIG, String.valueOf(size));
+      return;
+    }
+
+    direct = true;
+    directSize = size;
+  }
+
+  /**
+   * Returns true if the transition table has to be emitted, i.e. if
+   * transitions are not emitted as code or general lookahead needs 
+   * the table in the actions.
+   */
+  protected boolean needsTransTable() {
+    return !direct || hasGenLookAhead();
+  }
+
+  /**
+   * Returns the transitions of a DFA state for %codegen direct: maps
+   * each target state to the (reduced) character classes that lead 
+   * there, in the order of the classes. 
+   */
+  protected Map<Integer,List<Integer>> directTransitions(int state) {
+    Map<Integer,List<Integer>> targets = new LinkedHashMap<Integer,List<Integer>>();
+    for (int c = 0; c < dfa.numInput; c++) {
+      if (colKilled[c]) continue;
+      int target = dfa.table[state][c];
+      if (target == DFA.NO_TARGET) continue;
+      List<Integer> cols = targets.get(target);
+      if (cols == null) {
+        cols = new ArrayList<Integer>();
+        targets.put(target, cols);
+      }
+      cols.add(colMap[c]);
+    }
+    return targets;
+  }
+
+  /**
+   * Removes duplicate columns and rows from the transition table
+   * (see reduceColumns() and reduceRows()) and records the time
+   * this took in <code>reduceTime</code>.
+   */
+  protected void reduceTable() {
+    reduceTime = new Timer();
+    reduceColumns();
+    reduceRows();
+    reduceTime.stop();
+  }
+
+  /**
+   * Finds duplicate columns of the transition table. Sets colMap
+   * such that equal columns are mapped to the same column index,
+   * and marks all columns in colKilled that are equal to an earlier one.
+   *
+   * Columns are grouped by their hash code, so that they only have
+   * to be compared element by element on collisions.
+   */
   protected void reduceColumns() {
     colMap = new int [dfa.numInput];
     colKilled = new boolean [dfa.numInput];
@@ -318,11 +626,29 @@ public abstract class Emitter {
 
     numCols = dfa.numInput;
 
+    // hash codes of all columns, computed row by row
+    int [] hash = new int [dfa.numInput];
+    for (k = 0; k < dfa.numStates; k++) {
+      int [] row = dfa.table[k];
+      for (i = 0; i < dfa.numInput; i++) 
+        hash[i] = 31*hash[i] + row[i];
+    }
+
+    // columns that are not killed, by hash code
+    Map<Integer,List<Integer>> buckets = new HashMap<Integer,List<Integer>>();
+
     for (i = 0; i < dfa.numInput; i++) {
       
       colMap[i] = i-translate;
+
+      List<Integer> bucket = buckets.get(hash[i]);
+      if (bucket == null) {
+        bucket = new ArrayList<Integer>(1);
+        buckets.put(hash[i], bucket);
+      }
       
-      for (j = 0; j < i; j++) {
+      for (Integer col : bucket) {
+        j = col;
         
         // test for equality:
         k = -1;
@@ -338,9 +664,19 @@ public abstract class Emitter {
           break;
         } // if
       } // for j
+
+      if (!colKilled[i]) bucket.add(i);
     } // for i
   }
   
+  /**
+   * Finds duplicate rows of the transition table. Sets rowMap
+   * such that equal rows are mapped to the same row index,
+   * and marks all rows in rowKilled that are equal to an earlier one.
+   *
+   * Rows are grouped by their hash code, so that they only have
+   * to be compared element by element on collisions.
+   */
   protected void reduceRows() {
     rowMap = new int [dfa.numStates];
     rowKilled = new boolean [dfa.numStates];
@@ -351,14 +687,28 @@ public abstract class Emitter {
 
     numRows = dfa.numStates;
 
+    // rows that are not killed, by hash code
+    Map<Integer,List<Integer>> buckets = new HashMap<Integer,List<Integer>>();
+
     // i is the state to add to the new table
     for (i = 0; i < dfa.numStates; i++) {
       
       rowMap[i] = i-translate;
+
+      int hash = 0;
+      for (k = 0; k < dfa.numInput; k++)
+        hash = 31*hash + dfa.table[i][k];
+
+      List<Integer> bucket = buckets.get(hash);
+      if (bucket == null) {
+        bucket = new ArrayList<Integer>(1);
+        buckets.put(hash, bucket);
+      }
       
       // check if state i can be removed (i.e. already
       // exists in entries 0..i-1)
-      for (j = 0; j < i; j++) {
+      for (Integer row : bucket) {
+        j = row;
         
         // test for equality:
         k = -1;
@@ -374,11 +724,102 @@ public abstract class Emitter {
           break;
         } // if
       } // for j
+
+      if (!rowKilled[i]) bucket.add(i);
     } // for i
     
   } 
 
 
+  /**
+   * Packs the distinct rows of the transition table by overlaying them
+   * (row displacement or "comb" compression). Must be called after
+   * reduceRows().
+   *
+   * Each row gets a base offset that is greater than 0 and different from
+   * the base offsets of all other rows. Row r with base b stores its 
+   * transition for column c at index b+c of combNext and b at index b+c
+   * of combCheck; entries with no target are not stored. A lookup for 
+   * row r and column c thus yields combNext[b+c] if combCheck[b+c] == b
+   * and no target otherwise.
+   */
+  protected void packRows() {
+    Timer t = new Timer();
+
+    int [][] rows = new int [numRows][];
+    int [] filled = new int [numRows];
+
+    for (int i = 0; i < dfa.numStates; i++) {
+      if (rowKilled[i]) continue;
+      int [] row = new int [numCols];
+      int c = 0;
+      for (int k = 0; k < dfa.numInput; k++) {
+        if (colKilled[k]) continue;
+        row[c] = dfa.table[i][k];
+        if (row[c++] != DFA.NO_TARGET) filled[rowMap[i]]++;
+      }
+      rows[rowMap[i]] = row;
+    }
+
+    // place dense rows first, they are the hardest to fit
+    Integer [] order = new Integer [numRows];
+    for (int r = 0; r < numRows; r++) order[r] = r;
+    final int [] f = filled;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return f[a] != f[b] ? f[b] - f[a] : a - b;
+      }
+    });
+
+    rowBase = new int [numRows];
+    BitSet used = new BitSet();
+    BitSet usedBase = new BitSet();
+    usedBase.set(0); // 0 marks unused entries in combCheck
+    int size = 0;
+
+    for (Integer r : order) {
+      int [] row = rows[r];
+      int first = 0;
+      while (first < numCols && row[first] == DFA.NO_TARGET) first++;
+
+      int base = first < numCols ? Math.max(0, used.nextClearBit(0) - first) : 0;
+      boolean fits = false;
+      while (!fits) {
+        fits = !usedBase.get(base);
+        for (int c = first; fits && c < numCols; c++)
+          fits = row[c] == DFA.NO_TARGET || !used.get(base+c);
+        if (!fits) base++;
+      }
+
+      rowBase[r] = base;
+      usedBase.set(base);
+      for (int c = first; c < numCols; c++)
+        if (row[c] != DFA.NO_TARGET) used.set(base+c);
+      size = Math.max(size, base + numCols);
+    }
+
+    combNext = new int [size];
+    combCheck = new int [size];
+    Arrays.fill(combNext, DFA.NO_TARGET);
+
+    for (int r = 0; r < numRows; r++) {
+      for (int c = 0; c < numCols; c++) {
+        if (rows[r][c] != DFA.NO_TARGET) {
+          combNext[rowBase[r]+c] = rows[r][c];
+          combCheck[rowBase[r]+c] = rowBase[r];
+        }
+      }
+    }
+
+    t.stop();
+
+    Out.println(ErrorMessages.get(ErrorMessages.COMB_PACKED,
+                                  String.valueOf(2 * size),
+                                  String.valueOf(numRows * numCols)));
+    Out.time(ErrorMessages.COMB_TOOK, t);
+  }
+
+
   /**
    * Set up EOF code section according to scanner.eofcode 
    */
@@ -55,6 +55,11 @@ public class ErrorMessages {
     return MessageFormat.format(get(msg),args);
   }
 
+  public static String get(ErrorMessages msg, String data1, String data2, String data3) {
+    Object [] args = { data1, data2, data3 };
+    return MessageFormat.format(get(msg),args);
+  }
+
   public static String get(ErrorMessages msg, int data) {
     Object [] args = { data };
     return MessageFormat.format(get(msg),args);
@@ -99,6 +104,8 @@ public class ErrorMessages {
   public static ErrorMessages QUIL_YYLEXTHROW = new ErrorMessages("QUIL_YYLEXTHROW");
   public static ErrorMessages ZERO_STATES = new ErrorMessages("ZERO_STATES");
   public static ErrorMessages NO_BUFFER_SIZE = new ErrorMessages("NO_BUFFER_SIZE");
+  public static ErrorMessages NO_CODEGEN = new ErrorMessages("NO_CODEGEN");
+  public static ErrorMessages NO_POOL = new ErrorMessages("NO_POOL");
   public static ErrorMessages NOT_READABLE = new ErrorMessages("NOT_READABLE");
   public static ErrorMessages FILE_CYCLE = new ErrorMessages("FILE_CYCLE");
   public static ErrorMessages FILE_WRITE = new ErrorMessages("FILE_WRITE");
@@ -117,9 +124,11 @@ public class ErrorMessages {
   public static ErrorMessages CANNOT_OPEN = new ErrorMessages("CANNOT_OPEN");
   public static ErrorMessages NFA_IS = new ErrorMessages("NFA_IS");
   public static ErrorMessages NFA_STATES = new ErrorMessages("NFA_STATES");
+  public static ErrorMessages KEYWORD_TRIES = new ErrorMessages("KEYWORD_TRIES");
   public static ErrorMessages DFA_TOOK = new ErrorMessages("DFA_TOOK");
   public static ErrorMessages DFA_IS = new ErrorMessages("DFA_IS");
   public static ErrorMessages MIN_TOOK = new ErrorMessages("MIN_TOOK");
+  public static ErrorMessages REDUCE_TOOK = new ErrorMessages("REDUCE_TOOK");
   public static ErrorMessages MIN_DFA_IS = new ErrorMessages("MIN_DFA_IS");
   public static ErrorMessages WRITE_TOOK = new ErrorMessages("WRITE_TOOK");
   public static ErrorMessages TOTAL_TIME = new ErrorMessages("TOTAL_TIME");
@@ -144,4 +153,27 @@ public class ErrorMessages {
   public static ErrorMessages EMITTING_INPUTSTREAM_CTOR = new ErrorMessages("EMITTING_INPUTSTREAM_CTOR");
   public static ErrorMessages IMPOSSIBLE_CHARCLASS_RANGE = new ErrorMessages("IMPOSSIBLE_CHARCLASS_RANGE");
   public static ErrorMessages CODEPOINT_OUT_OF_RANGE = new ErrorMessages("CODEPOINT_OUT_OF_RANGE");
+  public static ErrorMessages CMAP_BLOCKS = new ErrorMessages("CMAP_BLOCKS");
+  public static ErrorMessages NO_DFA_THREADS = new ErrorMessages("NO_DFA_THREADS");
+  public static ErrorMessages COMB_PACKED = new ErrorMessages("COMB_PACKED");
+  public static ErrorMessages COMB_TOOK = new ErrorMessages("COMB_TOOK");
+  public static ErrorMessages CLOSURE_CACHE = new ErrorMessages("CLOSURE_CACHE");
+  public static ErrorMessages HUGE_METHOD = new ErrorMessages("HUGE_METHOD");
+  public static ErrorMessages DIRECT_TOO_MANY_STATES = new ErrorMessages("DIRECT_TOO_MANY_STATES");
+  public static ErrorMessages DIRECT_TOO_BIG = new ErrorMessages("DIRECT_TOO_BIG");
+  public static ErrorMessages NO_DIRECT_MAX = new ErrorMessages("NO_DIRECT_MAX");
+  public static ErrorMessages NO_DFA_LIMIT = new ErrorMessages("NO_DFA_LIMIT");
+  public static ErrorMessages DFA_STATE_LIMIT = new ErrorMessages("DFA_STATE_LIMIT");
+  public static ErrorMessages DFA_TIME_LIMIT = new ErrorMessages("DFA_TIME_LIMIT");
+  public static ErrorMessages DFA_MEMORY_LIMIT = new ErrorMessages("DFA_MEMORY_LIMIT");
+  public static ErrorMessages DFA_LIMIT_RULES = new ErrorMessages("DFA_LIMIT_RULES");
+  public static ErrorMessages DFA_LIMIT_RULE = new ErrorMessages("DFA_LIMIT_RULE");
+  public static ErrorMessages UTF8_SCALA = new ErrorMessages("UTF8_SCALA");
+  public static ErrorMessages UTF8_SKELETON = new ErrorMessages("UTF8_SKELETON");
+  public static ErrorMessages BATCH_SCALA = new ErrorMessages("BATCH_SCALA");
+  public static ErrorMessages BATCH_TYPE = new ErrorMessages("BATCH_TYPE");
+  public static ErrorMessages POOL_SCALA = new ErrorMessages("POOL_SCALA");
+  public static ErrorMessages POOL_UTF8 = new ErrorMessages("POOL_UTF8");
+  public static ErrorMessages LAZY_LINES_SCALA = new ErrorMessages("LAZY_LINES_SCALA");
+  public static ErrorMessages SPLIT_ACTIONS_SCALA = new ErrorMessages("SPLIT_ACTIONS_SCALA");
 }
\ No newline at end of file
@@ -0,0 +1,263 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * JFlex 1.7.0-SNAPSHOT                                                    *
+ * Copyright (C) 1998-2015  Gerwin Klein <lsf@jflex.de>                    *
+ * All rights reserved.                                                    *
+ *                                                                         *
+ * License: BSD                                                            *
+ *                                                                         *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package jflex;
+
+import java.io.*;
+
+
+/**
+ * Runs the scanner generation process for one specification.
+ *
+ * Each run has its own options, message output, and skeleton (see
+ * {@link GeneratorContext}), so <code>generate</code> can be called
+ * from several threads at the same time.
+ *
+ * @version JFlex 1.7.0-SNAPSHOT
+ */
+public final class Generator {
+
+  private Generator() {
+  }
+
+
+  /**
+   * Generates a scanner for the specified input file, messages are
+   * printed to System.out.
+   *
+   * @param inputFile  a file containing a lexical specification
+   *                   to generate a scanner for.
+   * @param options    the options for this run
+   * @throws GeneratorException if the scanner could not be generated
+   */
+  public static void generate(File inputFile, GeneratorOptions options) {
+    generate(inputFile, options, System.out);
+  }
+
+
+  /**
+   * Generates a scanner for the specified input file.
+   *
+   * @param inputFile  a file containing a lexical specification
+   *                   to generate a scanner for.
+   * @param options    the options for this run
+   * @param messages   the stream to print messages, warnings, and errors to
+   * @throws GeneratorException if the scanner could not be generated
+   */
+  public static void generate(File inputFile, GeneratorOptions options,
+                              OutputStream messages) {
+    StdOutWriter out = new StdOutWriter(messages);
+    try {
+      generate(inputFile, new GeneratorContext(options, out));
+    }
+    finally {
+      out.flush();
+    }
+  }
+
+
+  /**
+   * Generates a scanner for the specified input file in the specified
+   * context. The context is bound to the current thread during the run.
+   *
+   * @param inputFile  a file containing a lexical specification
+   *                   to generate a scanner for.
+   * @param context    the context of this run
+   * @throws GeneratorException if the scanner could not be generated
+   */
+  static void generate(File inputFile, GeneratorContext context) {
+    GeneratorContext previous = GeneratorContext.enter(context);
+    try {
+      run(inputFile, context);
+    }
+    finally {
+      GeneratorContext.enter(previous);
+    }
+  }
+
+
+  private static void run(File inputFile, GeneratorContext context) {
+
+    GeneratorOptions options = context.options;
+
+    Timer totalTime = new Timer();
+    Timer time      = new Timer();
+
+    LexScan scanner = null;
+    LexParse parser = null;
+    FileReader inputReader = null;
+
+    totalTime.start();
+
+    try {
+      Out.println(ErrorMessages.READING, inputFile.toString());
+      inputReader = new FileReader(inputFile);
+      scanner = new LexScan(inputReader);
+      scanner.setFile(inputFile);
+      parser = new LexParse(scanner);
+    }
+    catch (FileNotFoundException e) {
+      Out.error(ErrorMessages.CANNOT_OPEN, inputFile.toString());
+      throw new GeneratorException();
+    }
+
+    try {
+      NFA nfa = (NFA) parser.parse().value;
+
+      Out.checkErrors();
+
+      if (options.dump) Out.dump(ErrorMessages.get(ErrorMessages.NFA_IS)+
+                                 Out.NL+nfa+Out.NL);
+
+      if (options.dot)
+        nfa.writeDot(Emitter.normalize("nfa.dot", null));       //$NON-NLS-1$
+
+      Out.println(ErrorMessages.NFA_STATES, nfa.numStates);
+      nfa.reportKeywordTries();
+
+      time.start();
+      DFA dfa = nfa.getDFA();
+      time.stop();
+      Out.time(ErrorMessages.DFA_TOOK, time);
+
+      dfa.checkActions(scanner, parser);
+
+      nfa = null;
+
+      if (options.dump) Out.dump(ErrorMessages.get(ErrorMessages.DFA_IS)+
+                                 Out.NL+dfa+Out.NL);
+
+      if (options.dot)
+        dfa.writeDot(Emitter.normalize("dfa-big.dot", null)); //$NON-NLS-1$
+
+      Out.checkErrors();
+
+      time.start();
+      dfa.minimize();
+      time.stop();
+
+      Out.time(ErrorMessages.MIN_TOOK, time);
+
+      if (options.dump)
+        Out.dump(ErrorMessages.get(ErrorMessages.MIN_DFA_IS)+
+                                   Out.NL+dfa);
+
+      if (options.dot)
+        dfa.writeDot(Emitter.normalize("dfa-min.dot", null)); //$NON-NLS-1$
+
+      if(options.emitScala){
+        InputStream stream; // use scala skeleton by default
+        try {
+//          stream = Main.class.getClassLoader().getResource("jflex/skeleton.scala").openStream();
+          stream = ClassLoader.getSystemResource("jflex/skeleton.scala").openStream();
+          context.setSkeleton(Skeleton.readSkelLines(new BufferedReader(new InputStreamReader(stream))));
+        } catch (Exception e){
+          e.printStackTrace();
+        }
+      }
+
+      if (scanner.utf8) {
+        if (options.emitScala) {
+          Out.error(ErrorMessages.UTF8_SCALA);
+          throw new GeneratorException();
+        }
+        if (options.skeleton != null && options.skeleton != Skeleton.defaultLines()) 
+          Out.warning(ErrorMessages.UTF8_SKELETON);
+        context.setSkeleton(Skeleton.utf8Lines());
+        if ("private".equals(scanner.visibility)) context.makeSkeletonPrivate();
+      }
+
+      if (scanner.batch) {
+        if (options.emitScala) {
+          Out.error(ErrorMessages.BATCH_SCALA);
+          throw new GeneratorException();
+        }
+        if (scanner.tokenType == null ? !scanner.isInteger : !scanner.tokenType.equals("int")) {
+          Out.error(ErrorMessages.BATCH_TYPE);
+          throw new GeneratorException();
+        }
+      }
+
+      if (scanner.inMemory && !scanner.utf8) 
+        context.setSkeleton(Skeleton.makeInMemory(context.getSkeleton(), options.emitScala));
+
+      if (scanner.pool) {
+        if (options.emitScala) {
+          Out.error(ErrorMessages.POOL_SCALA);
+          throw new GeneratorException();
+        }
+        if (scanner.utf8) {
+          Out.error(ErrorMessages.POOL_UTF8);
+          throw new GeneratorException();
+        }
+        context.setSkeleton(Skeleton.makePooled(context.getSkeleton()));
+      }
+
+      if (scanner.lazyLines && (scanner.lineCount || scanner.columnCount)) {
+        if (options.emitScala) {
+          Out.error(ErrorMessages.LAZY_LINES_SCALA);
+          throw new GeneratorException();
+        }
+        context.setSkeleton(Skeleton.makeLazyLines(context.getSkeleton()));
+      }
+
+      if (scanner.splitActions && options.emitScala) {
+        Out.error(ErrorMessages.SPLIT_ACTIONS_SCALA);
+        throw new GeneratorException();
+      }
+
+      time.start();
+
+      Emitter e = options.emitScala? new ScalaEmitter(inputFile, parser, dfa): new JavaEmitter(inputFile, parser, dfa);
+      e.emit();
+
+      time.stop();
+
+      Out.time(ErrorMessages.REDUCE_TOOK, e.reduceTime);
+
+      Out.time(ErrorMessages.WRITE_TOOK, time);
+
+      totalTime.stop();
+
+      Out.time(ErrorMessages.TOTAL_TIME, totalTime);
+    }
+    catch (ScannerException e) {
+      Out.error(e.file, e.message, e.line, e.column);
+      throw new GeneratorException();
+    }
+    catch (MacroException e) {
+      Out.error(e.getMessage());
+      throw new GeneratorException();
+    }
+    catch (IOException e) {
+      Out.error(ErrorMessages.IO_ERROR, e.toString());
+      throw new GeneratorException();
+    }
+    catch (OutOfMemoryError e) {
+      Out.error(ErrorMessages.OUT_OF_MEMORY);
+      throw new GeneratorException();
+    }
+    catch (GeneratorException e) {
+      throw new GeneratorException();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      throw new GeneratorException();
+    }
+    finally {
+      try {
+        inputReader.close();
+      }
+      catch (IOException e) {
+        // nothing left to read
+      }
+    }
+
+  }
+}
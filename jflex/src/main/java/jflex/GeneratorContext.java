@@ -0,0 +1,146 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * JFlex 1.7.0-SNAPSHOT                                                    *
+ * Copyright (C) 1998-2015  Gerwin Klein <lsf@jflex.de>                    *
+ * All rights reserved.                                                    *
+ *                                                                         *
+ * License: BSD                                                            *
+ *                                                                         *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package jflex;
+
+
+/**
+ * The state of a single generator run: options, message output and
+ * error counters, skeleton, and the macros used by the semantic checks.
+ *
+ * The context of a run is bound to the thread that executes it (see
+ * {@link Generator}), so that several runs can execute at the same
+ * time in different threads. Outside of a generator run, a global
+ * context is used that reflects the static settings in {@link Options},
+ * {@link Out}, and {@link Skeleton}.
+ *
+ * @version JFlex 1.7.0-SNAPSHOT
+ */
+final class GeneratorContext {
+
+  /** the context of the generator run executing in the current thread */
+  private static final ThreadLocal<GeneratorContext> current
+    = new ThreadLocal<GeneratorContext>();
+
+  /** the context outside of generator runs */
+  private static final GeneratorContext global
+    = new GeneratorContext(null, new StdOutWriter());
+
+  /** the options of this run, null in the global context */
+  final GeneratorOptions options;
+
+  /** output device for messages */
+  StdOutWriter out;
+
+  /** count total warnings */
+  int warnings;
+
+  /** count total errors */
+  int errors;
+
+  /** the skeleton sections of this run */
+  private String [] skeleton;
+
+  /** the macro table (in expanded form) for the semantic checks */
+  Macros macros;
+
+
+  /**
+   * Creates a new context.
+   *
+   * @param options  the options of the run
+   * @param out      output device for messages
+   */
+  GeneratorContext(GeneratorOptions options, StdOutWriter out) {
+    this.options = options;
+    this.out = out;
+    if (options != null)
+      skeleton = options.skeleton != null ? options.skeleton : Skeleton.defaultLines();
+  }
+
+
+  /**
+   * Creates a context for a generator run with the current global
+   * settings and the global message output.
+   */
+  static GeneratorContext fromOptions() {
+    return new GeneratorContext(GeneratorOptions.fromOptions(), global.out);
+  }
+
+
+  /**
+   * Returns the context of the generator run executing in the current
+   * thread, or the global context outside of generator runs.
+   */
+  static GeneratorContext get() {
+    GeneratorContext context = current.get();
+    return context != null ? context : global;
+  }
+
+
+  /**
+   * Returns the global context.
+   */
+  static GeneratorContext global() {
+    return global;
+  }
+
+
+  /**
+   * Returns the options of the generator run executing in the current
+   * thread, or a copy of the global options outside of generator runs.
+   */
+  static GeneratorOptions options() {
+    GeneratorContext context = current.get();
+    return context != null ? context.options : GeneratorOptions.fromOptions();
+  }
+
+
+  /**
+   * Binds a context to the current thread.
+   *
+   * @param  context  the context to bind, null for the global context
+   * @return the context that was bound before (null for the global context)
+   */
+  static GeneratorContext enter(GeneratorContext context) {
+    GeneratorContext previous = current.get();
+    if (context == null)
+      current.remove();
+    else
+      current.set(context);
+    return previous;
+  }
+
+
+  /**
+   * @return the skeleton sections to emit
+   */
+  String [] getSkeleton() {
+    return this == global ? Skeleton.line : skeleton;
+  }
+
+  /**
+   * Sets the skeleton sections to emit.
+   */
+  void setSkeleton(String [] sections) {
+    if (this == global)
+      Skeleton.line = sections;
+    else
+      skeleton = sections;
+  }
+
+  /**
+   * Makes the skeleton of this run private (%apiprivate).
+   *
+   * @see Skeleton#makePrivate()
+   */
+  void makeSkeletonPrivate() {
+    setSkeleton(Skeleton.makePrivate(getSkeleton()));
+  }
+}
@@ -0,0 +1,144 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * JFlex 1.7.0-SNAPSHOT                                                    *
+ * Copyright (C) 1998-2015  Gerwin Klein <lsf@jflex.de>                    *
+ * All rights reserved.                                                    *
+ *                                                                         *
+ * License: BSD                                                            *
+ *                                                                         *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package jflex;
+
+import java.io.*;
+
+
+/**
+ * The options of a single generator run, see
+ * {@link Generator#generate(File, GeneratorOptions)}.
+ *
+ * Has the same options as the global settings in {@link Options},
+ * but each run gets its own copy, so that several scanners can be
+ * generated at the same time with different options.
+ *
+ * @version JFlex 1.7.0-SNAPSHOT
+ */
+public final class GeneratorOptions {
+
+  /** output directory, null for the directory of the spec file */
+  private File directory;
+  /** strict JLex compatibility */
+  public boolean jlex;
+  /** don't run minimization algorithm if this is true */
+  public boolean no_minimize;
+  /** don't write backup files if this is true */
+  public boolean no_backup;
+  /** If false, only error/warning output will be generated */
+  public boolean verbose;
+  /** Whether to warn about unused macros. */
+  public boolean unused_warning;
+  /** If true, progress dots will be printed */
+  public boolean progress;
+  /** If true, jflex will print time statistics about the generation process */
+  public boolean time;
+  /** If true, jflex will write graphviz .dot files for generated automata */
+  public boolean dot;
+  /** If true, you will be flooded with information (e.g. dfa tables).  */
+  public boolean dump;
+  /** If true, dot (.) metachar matches [^\n] instead of [^\r\n\u000B\u000C\u0085\u2028\u2029]|"\r\n" */
+  public boolean legacy_dot;
+  /** If true, the generated scanner will include a constructor taking an InputStream. */
+  public boolean emitInputStreamCtor;
+  /** If true, the transition table will be row displacement packed */
+  public boolean comb;
+  /** If true, user actions are emitted in separate methods instead of inside yylex */
+  public boolean split_actions;
+  /** number of threads for DFA construction, 1 for serial construction */
+  public int dfa_threads;
+  /** the largest number of DFA states to construct, 0 for no limit */
+  public int dfa_max_states;
+  /** the longest time in seconds to spend on DFA construction, 0 for no limit */
+  public int dfa_max_time;
+  /** the largest estimated memory in MB for the DFA states, 0 for no limit */
+  public int dfa_max_memory;
+  /** If true, the DFA transitions are emitted as code instead of tables */
+  public boolean direct;
+  /** the largest number of DFA states for which transitions are emitted as code */
+  public int direct_max_states;
+  /** If true, the generated scanner will be in Scala */
+  public boolean emitScala;
+
+  /** the skeleton sections, null for the default skeleton */
+  String [] skeleton;
+
+
+  /**
+   * Creates options with default values.
+   */
+  public GeneratorOptions() {
+    verbose = true;
+    progress = true;
+    unused_warning = true;
+    dfa_threads = 1;
+    direct_max_states = 256;
+  }
+
+
+  /**
+   * Returns a copy of the current global settings in {@link Options}
+   * (including the current global skeleton).
+   */
+  public static GeneratorOptions fromOptions() {
+    GeneratorOptions options = new GeneratorOptions();
+    options.directory = Options.getDir();
+    options.jlex = Options.jlex;
+    options.no_minimize = Options.no_minimize;
+    options.no_backup = Options.no_backup;
+    options.verbose = Options.verbose;
+    options.unused_warning = Options.unused_warning;
+    options.progress = Options.progress;
+    options.time = Options.time;
+    options.dot = Options.dot;
+    options.dump = Options.dump;
+    options.legacy_dot = Options.legacy_dot;
+    options.emitInputStreamCtor = Options.emitInputStreamCtor;
+    options.comb = Options.comb;
+    options.split_actions = Options.split_actions;
+    options.dfa_threads = Options.dfa_threads;
+    options.dfa_max_states = Options.dfa_max_states;
+    options.dfa_max_time = Options.dfa_max_time;
+    options.dfa_max_memory = Options.dfa_max_memory;
+    options.direct = Options.direct;
+    options.direct_max_states = Options.direct_max_states;
+    options.emitScala = Options.emitScala;
+    options.skeleton = Skeleton.line;
+    return options;
+  }
+
+
+  /**
+   * @return the output directory
+   */
+  public File getDir() {
+    return directory;
+  }
+
+  /**
+   * Set output directory
+   *
+   * @param d  the directory to write output files to
+   */
+  public void setDir(File d) {
+    Options.checkDir(d);
+    directory = d;
+  }
+
+  /**
+   * Reads an external skeleton file for the scanners generated with
+   * these options.
+   *
+   * @param skeletonFile  the file to read (must be != null and readable)
+   */
+  public void setSkeleton(File skeletonFile) {
+    skeleton = Skeleton.readSkelLines(skeletonFile);
+  }
+}
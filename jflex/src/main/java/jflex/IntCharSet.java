@@ -13,10 +13,12 @@ import java.util.*;
 import jflex.unicode.UnicodeProperties;
 
 
-/** 
+/**
  * CharSet implemented with intervals
  *
- * [fixme: optimizations possible]
+ * The intervals are stored packed in one int array, start and end of
+ * interval i at index 2*i and 2*i+1. Single intervals are inserted with
+ * binary search, set operations merge the sorted interval arrays.
  *
  * @author Gerwin Klein
  * @version JFlex 1.7.0-SNAPSHOT
@@ -25,12 +27,18 @@ public final class IntCharSet {
 
   private final static boolean DEBUG = false;
 
-  /* invariant: all intervals are disjoint, ordered */
-  private List<Interval> intervals;
+  /* invariant: all intervals are disjoint, ordered, and not adjacent */
+  private int [] bounds;
+  private int size;
+
+  /* for getNext() */
   private int pos;
+  /* the interval last returned by getNext(), written back to bounds */
+  private Interval next;
+  private int nextIndex;
 
   public IntCharSet() {
-    this.intervals = new ArrayList<Interval>();
+    this.bounds = new int [8];
   }
 
   public IntCharSet(int c) {
@@ -39,147 +47,168 @@ public final class IntCharSet {
 
   public IntCharSet(Interval interval) {
     this();
-    intervals.add(interval);
+    bounds[0] = interval.start;
+    bounds[1] = interval.end;
+    size = 1;
   }
 
   public IntCharSet(List<Interval> chars) {
-    int size = chars.size();
-    intervals = new ArrayList<Interval>(size);
+    this.bounds = new int [Math.max(8, 2 * chars.size())];
 
     for (Interval interval : chars)
-      add(interval);
+      add(interval.start, interval.end);
   }
-  
-  
+
+
 
   /**
    * returns the index of the interval that contains
    * the character c, -1 if there is no such interval
    *
    * @prec: true
-   * @post: -1 <= return < intervals.size() && 
-   *        (return > -1 --> intervals[return].contains(c))
-   * 
+   * @post: -1 <= return < size &&
+   *        (return > -1 --> interval[return].contains(c))
+   *
    * @param c  the character
-   * @return the index of the enclosing interval, -1 if no such interval  
+   * @return the index of the enclosing interval, -1 if no such interval
    */
   private int indexOf(int c) {
-    int start = 0;
-    int end   = intervals.size()-1;
-
-    while (start <= end) {
-      int check = (start+end) / 2;
-      Interval i = intervals.get(check);
-      
-      if (start == end) 
-        return i.contains(c) ? start : -1;      
-
-      if (c < i.start) {
-        end = check-1;
-        continue;
-      }
-
-      if (c > i.end) {
-        start = check+1;
-        continue;
-      }
+    int i = firstEndingAtOrAfter(c);
+    return i < size && bounds[2*i] <= c ? i : -1;
+  }
 
-      return check;
+  /**
+   * Returns the index of the first interval with end >= c,
+   * size if there is none.
+   */
+  private int firstEndingAtOrAfter(int c) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (bounds[2*mid+1] < c)
+        low = mid + 1;
+      else
+        high = mid;
     }
+    return low;
+  }
 
-    return -1;
-  } 
+  /**
+   * Writes back changes to the interval last returned by getNext().
+   */
+  private void syncNext() {
+    if (next != null) {
+      bounds[2*nextIndex] = next.start;
+      bounds[2*nextIndex+1] = next.end;
+    }
+  }
 
-  public IntCharSet add(IntCharSet set) {
-    for (Interval interval : set.intervals) 
-      add(interval);
-    return this;
+  /**
+   * Makes sure there is space for n intervals.
+   */
+  private void ensureCapacity(int n) {
+    if (2*n <= bounds.length) return;
+    int [] larger = new int [Math.max(2*n, 2*bounds.length)];
+    System.arraycopy(bounds, 0, larger, 0, 2*size);
+    bounds = larger;
   }
 
-  public void add(Interval interval) {
-    
-    int size = intervals.size();
+  public IntCharSet add(IntCharSet set) {
+    syncNext();
+    set.syncNext();
+    if (set.size == 0) return this;
+
+    if (size == 0) {
+      ensureCapacity(set.size);
+      System.arraycopy(set.bounds, 0, bounds, 0, 2*set.size);
+      size = set.size;
+      next = null;
+      return this;
+    }
 
-    for (int i = 0; i < size; i++) {
-      Interval elem = intervals.get(i);
+    if (set.size < 4) {
+      for (int j = 0; j < set.size; j++)
+        add(set.bounds[2*j], set.bounds[2*j+1]);
+      return this;
+    }
 
-      if ( elem.end+1 < interval.start ) continue;
-      
-      if ( elem.contains(interval) ) return;      
+    // merge both interval arrays, joining overlapping and adjacent ones
+    int [] result = new int [2 * (size + set.size)];
+    int n = 0;
+    int i = 0;  // index in this
+    int j = 0;  // index in set
+
+    while (i < size || j < set.size) {
+      int start, end;
+      if (j == set.size || i < size && bounds[2*i] <= set.bounds[2*j]) {
+        start = bounds[2*i];
+        end = bounds[2*i+1];
+        i++;
+      }
+      else {
+        start = set.bounds[2*j];
+        end = set.bounds[2*j+1];
+        j++;
+      }
 
-      if ( elem.start > interval.end+1 ) {
-        intervals.add(i, new Interval(interval));
-        return;
+      if (n > 0 && result[2*n-1] + 1 >= start) {
+        if (end > result[2*n-1]) result[2*n-1] = end;
       }
-      
-      if (interval.start < elem.start)
-        elem.start = interval.start;
-      
-      if (interval.end <= elem.end) 
-        return;
-        
-      elem.end = interval.end;
-        
-      i++;      
-      // delete all x with x.contains( interval.end )
-      while (i < size) {
-        Interval x = intervals.get(i);
-        if (x.start > elem.end+1) return;
-        
-        if (x.end > elem.end) {
-          elem.end = x.end;
-        }
-        intervals.remove(i);
-        size--;
+      else {
+        result[2*n] = start;
+        result[2*n+1] = end;
+        n++;
       }
-      return;      
     }
 
-    intervals.add(new Interval(interval));
+    bounds = result;
+    size = n;
+    next = null;
+    return this;
   }
 
-  public void add(int c) {
-    int size = intervals.size();
+  public void add(Interval interval) {
+    add(interval.start, interval.end);
+  }
 
-    for (int i = 0; i < size; i++) {
-      Interval elem = intervals.get(i);
-      if (elem.end+1 < c) continue;
+  public void add(int c) {
+    add(c, c);
+  }
 
-      if (elem.contains(c)) return; // already there, nothing to do
+  /**
+   * Adds the characters from start to end (inclusive), joins the
+   * intervals it overlaps or touches.
+   */
+  private void add(int start, int end) {
+    syncNext();
+
+    // first interval that overlaps or touches [start, end]
+    int i = firstEndingAtOrAfter(start-1);
+    // first interval after [start, end] that does not touch it
+    int j = i;
+    while (j < size && bounds[2*j] <= end+1) j++;
+
+    if (i == j) {
+      ensureCapacity(size+1);
+      System.arraycopy(bounds, 2*i, bounds, 2*i+2, 2*(size-i));
+      bounds[2*i] = start;
+      bounds[2*i+1] = end;
+      size++;
+    }
+    else {
+      bounds[2*i] = Math.min(start, bounds[2*i]);
+      bounds[2*i+1] = Math.max(end, bounds[2*j-1]);
+      System.arraycopy(bounds, 2*j, bounds, 2*i+2, 2*(size-j));
+      size -= j-i-1;
+    }
+    next = null;
+  }
 
-      // assert(elem.end+1 >= c && (elem.start > c || elem.end < c));
-      
-      if (elem.start > c+1) {
-        intervals.add(i, new Interval(c,c));
-        return;                 
-      }
 
-      // assert(elem.end+1 >= c && elem.start <= c+1 && (elem.start > c || elem.end < c));
- 
-      if (c+1 == elem.start) {
-        elem.start = c;
-        return;
-      }
-      
-      // assert(elem.end+1 == c);
-      elem.end = c;
-
-      // merge with next interval if it contains c
-      if (i+1 >= size) return;
-      Interval x = intervals.get(i+1);
-      if (x.start <= c+1) {
-        elem.end = x.end;
-        intervals.remove(i+1);
-      }
-      return;
-    }
-    
-    // end reached but nothing found -> append at end
-    intervals.add(new Interval(c,c));
-  } 
 
- 
   public boolean contains(int singleChar) {
+    syncNext();
     return indexOf(singleChar) >= 0;
   }
 
@@ -189,8 +218,21 @@ public final class IntCharSet {
    */
   public boolean equals(Object o) {
     IntCharSet set = (IntCharSet) o;
-    
-    return intervals.equals(set.intervals);
+    syncNext();
+    set.syncNext();
+
+    if (size != set.size) return false;
+    for (int i = 0; i < 2*size; i++)
+      if (bounds[i] != set.bounds[i]) return false;
+    return true;
+  }
+
+  public int hashCode() {
+    syncNext();
+    int hash = size;
+    for (int i = 0; i < 2*size; i++)
+      hash = 31*hash + bounds[i];
+    return hash;
   }
 
   private int min(int a, int b) {
@@ -203,6 +245,9 @@ public final class IntCharSet {
 
   /* intersection */
   public IntCharSet and(IntCharSet set) {
+    syncNext();
+    set.syncNext();
+
     if (DEBUG) {
       Out.dump("intersection");
       Out.dump("this  : "+this);
@@ -210,36 +255,31 @@ public final class IntCharSet {
     }
 
     IntCharSet result = new IntCharSet();
+    result.ensureCapacity(size + set.size);
 
-    int i = 0;  // index in this.intervals
-    int j = 0;  // index in set.intervals
-
-    int size = intervals.size();
-    int setSize = set.intervals.size();
+    int i = 0;  // index in this
+    int j = 0;  // index in set
 
-    while (i < size && j < setSize) {
-      Interval x = this.intervals.get(i);
-      Interval y = set.intervals.get(j);
+    while (i < size && j < set.size) {
+      int xStart = bounds[2*i], xEnd = bounds[2*i+1];
+      int yStart = set.bounds[2*j], yEnd = set.bounds[2*j+1];
 
-      if (x.end < y.start) {
+      if (xEnd < yStart) {
         i++;
         continue;
       }
 
-      if (y.end < x.start) {
+      if (yEnd < xStart) {
         j++;
         continue;
       }
 
-      result.intervals.add(
-        new Interval(
-          max(x.start, y.start), 
-          min(x.end, y.end)
-          )
-        );
+      result.bounds[2*result.size] = max(xStart, yStart);
+      result.bounds[2*result.size+1] = min(xEnd, yEnd);
+      result.size++;
 
-      if (x.end >= y.end) j++;
-      if (y.end >= x.end) i++;
+      if (xEnd >= yEnd) j++;
+      if (yEnd >= xEnd) i++;
     }
 
     if (DEBUG) {
@@ -248,73 +288,56 @@ public final class IntCharSet {
 
     return result;
   }
-  
+
   /* complement */
-  /* prec: this.contains(set), set != null */
+  /* prec: set != null */
   public void sub(IntCharSet set) {
+    syncNext();
+    set.syncNext();
+
     if (DEBUG) {
       Out.dump("complement");
       Out.dump("this  : "+this);
       Out.dump("other : "+set);
     }
 
-    int i = 0;  // index in this.intervals
-    int j = 0;  // index in set.intervals
-
-    int setSize = set.intervals.size();
-
-    while (i < intervals.size() && j < setSize) {
-      Interval x = this.intervals.get(i);
-      Interval y = set.intervals.get(j);
-
-      if (DEBUG) {
-        Out.dump("this      : "+this);
-        Out.dump("this  ["+i+"] : "+x);
-        Out.dump("other ["+j+"] : "+y);
-      }
-
-      if (x.end < y.start) {
-        i++;
-        continue;
-      }
-
-      if (y.end < x.start) {
-        j++;
-        continue;
-      }
-
-      // x.end >= y.start && y.end >= x.start ->
-      // x.end <= y.end && x.start >= y.start (prec)
-      
-      if (x.start == y.start && x.end == y.end) {
-        intervals.remove(i);
-        j++;
-        continue;
-      }
-
-      // x.end <= y.end && x.start >= y.start &&
-      // (x.end < y.end || x.start > y.start) ->
-      // x.start < x.end 
+    // each interval of set splits at most one interval of this in two
+    int [] result = new int [2 * (size + set.size)];
+    int n = 0;
+    int j = 0;  // index in set
 
-      if (x.start == y.start) {
-        x.start = y.end + 1;
-        j++;
-        continue;
+    for (int i = 0; i < size; i++) {
+      int start = bounds[2*i];
+      int end = bounds[2*i+1];
+
+      while (j < set.size && set.bounds[2*j+1] < start) j++;
+
+      // remove the parts of [start, end] in set
+      int k = j;
+      while (start <= end && k < set.size && set.bounds[2*k] <= end) {
+        if (set.bounds[2*k] > start) {
+          result[2*n] = start;
+          result[2*n+1] = set.bounds[2*k] - 1;
+          n++;
+        }
+        if (set.bounds[2*k+1] >= end) {
+          start = end + 1;
+          break;
+        }
+        start = set.bounds[2*k+1] + 1;
+        k++;
       }
 
-      if (x.end == y.end) {
-        x.end = y.start - 1;
-        i++;
-        j++;
-        continue;
+      if (start <= end) {
+        result[2*n] = start;
+        result[2*n+1] = end;
+        n++;
       }
+    }
 
-      intervals.add(i, new Interval(x.start, y.start - 1));
-      x.start = y.end + 1;
-
-      i++;
-      j++;
-    }   
+    bounds = result;
+    size = n;
+    next = null;
 
     if (DEBUG) {
       Out.dump("result: "+this);
@@ -322,41 +345,50 @@ public final class IntCharSet {
   }
 
   public boolean containsElements() {
-    return intervals.size() > 0;
+    return size > 0;
   }
 
   public int numIntervals() {
-    return intervals.size();
+    return size;
   }
 
+  /**
+   * Returns the intervals of this set (a copy, changing them does not
+   * change the set).
+   */
   public List<Interval> getIntervals() {
-    return intervals;
+    syncNext();
+    List<Interval> result = new ArrayList<Interval>(size);
+    for (int i = 0; i < size; i++)
+      result.add(new Interval(bounds[2*i], bounds[2*i+1]));
+    return result;
   }
 
-  // beware: depends on caller protocol, single user only 
+  // beware: depends on caller protocol, single user only
   public Interval getNext() {
-    if (pos == intervals.size()) pos = 0;
-    return intervals.get(pos++);
+    syncNext();
+    if (pos == size) pos = 0;
+    nextIndex = pos++;
+    next = new Interval(bounds[2*nextIndex], bounds[2*nextIndex+1]);
+    return next;
   }
 
   /**
    * Create a caseless version of this charset.
    * <p>
    * The caseless version contains all characters of this char set,
-   * and additionally all lower/upper/title case variants of the 
+   * and additionally all lower/upper/title case variants of the
    * characters in this set.
-   * 
+   *
    * @param unicodeProperties The Unicode Properties to use when generating
    *  caseless equivalence classes.
    * @return a caseless copy of this set
    */
   public IntCharSet getCaseless(UnicodeProperties unicodeProperties) {
     IntCharSet n = copy();
-        
-    int size = intervals.size();
-    for (int i=0; i < size; i++) {
-      Interval elem = intervals.get(i);
-      for (int c = elem.start; c <= elem.end; c++) {
+
+    for (int i = 0; i < size; i++) {
+      for (int c = bounds[2*i]; c <= bounds[2*i+1]; c++) {
         IntCharSet equivalenceClass = unicodeProperties.getCaselessMatches(c);
         if (null != equivalenceClass)
           n.add(equivalenceClass);
@@ -368,30 +400,33 @@ public final class IntCharSet {
 
   /**
    * Make a string representation of this char set.
-   * 
+   *
    * @return a string representing this char set.
    */
   public String toString() {
+    syncNext();
     StringBuilder result = new StringBuilder("{ ");
 
-    for (Interval interval : intervals) 
-      result.append(interval);
+    for (int i = 0; i < size; i++)
+      result.append(new Interval(bounds[2*i], bounds[2*i+1]));
 
     result.append(" }");
 
     return result.toString();
   }
-  
-  
-  /** 
+
+
+  /**
    * Return a (deep) copy of this char set
-   * 
+   *
    * @return the copy
    */
   public IntCharSet copy() {
+    syncNext();
     IntCharSet result = new IntCharSet();
-    for (Interval interval : intervals)
-      result.intervals.add(interval.copy());
+    result.bounds = new int [Math.max(8, 2*size)];
+    System.arraycopy(bounds, 0, result.bounds, 0, 2*size);
+    result.size = size;
     return result;
   }
 }
@@ -1,15 +1,39 @@
 package jflex;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by strubell on 3/2/15.
  */
 public class JavaEmitter extends Emitter {
 
+  /**
+   * Estimated bytecode size of the lexer method without actions,
+   * EOF actions, and optional features.
+   */
+  private static final int LEX_FUNCT_SIZE = 340;
+
+  /** Estimated bytecode size of an action method without actions */
+  private static final int ACTION_METHOD_SIZE = 40;
+
+  /** An action that only returns a number or a (qualified) name */
+  private static final Pattern BATCH_ACTION = Pattern.compile
+    ("\\s*return\\s+(-?[0-9]+|[\\p{L}_$][\\w$]*(?:\\s*\\.\\s*[\\p{L}_$][\\w$]*)*)\\s*;\\s*");
+
   private String visibility = "public";
 
+  /** true iff lines or columns are counted lazily (%lazylines) */
+  private boolean lazyLines;
+
+  /** the groups of actions for the action methods of %splitactions */
+  private List<List<Map.Entry<Action, Integer>>> actionGroups;
+
   public JavaEmitter(File inputFile, LexParse parser, DFA dfa) throws IOException {
 
     String name = getBaseName(parser.scanner.className) + ".java";
@@ -22,6 +46,7 @@ public class JavaEmitter extends Emitter {
     this.parser = parser;
     this.scanner = parser.scanner;
     this.visibility = scanner.visibility;
+    this.lazyLines = scanner.lazyLines && (scanner.lineCount || scanner.columnCount);
     this.inputFile = inputFile;
     this.dfa = dfa;
     this.skel = new Skeleton(out);
@@ -31,7 +56,10 @@ public class JavaEmitter extends Emitter {
     if (!hasGenLookAhead()) return;
 
     println("  /** For the backwards DFA of general lookahead statements */");
-    println("  private boolean [] zzFin = new boolean [ZZ_BUFFERSIZE+1];");
+    if (scanner.pool || scanner.inMemory && !scanner.utf8)
+      println("  private boolean [] zzFin = new boolean [0];");
+    else
+      println("  private boolean [] zzFin = new boolean [ZZ_BUFFERSIZE+1];");
     println();
   }
 
@@ -128,8 +156,8 @@ public class JavaEmitter extends Emitter {
 
       println("    " + scanner.tokenType + " s = " + scanner.functionName + "();");
       print("    System.out.println( ");
-      if (scanner.lineCount) print("\"line:\" + (yyline+1) + ");
-      if (scanner.columnCount) print("\" col:\" + (yycolumn+1) + ");
+      if (scanner.lineCount) print("\"line:\" + (" + lineExpr() + "+1) + ");
+      if (scanner.columnCount) print("\" col:\" + (" + columnExpr() + "+1) + ");
       println("\" --\"+ yytext() + \"--\" + getTokenName(s.sym) + \"--\");");
       println("    return s;");
       println("  }");
@@ -182,8 +210,16 @@ public class JavaEmitter extends Emitter {
     println("        " + className + " scanner = null;");
     println("        try {");
     println("          java.io.FileInputStream stream = new java.io.FileInputStream(argv[i]);");
-    println("          java.io.Reader reader = new java.io.InputStreamReader(stream, encodingName);");
-    println("          scanner = new " + className + "(reader);");
+    if (scanner.utf8) {
+      println("          // the input is always UTF-8 encoded");
+      println("          java.nio.channels.FileChannel channel = stream.getChannel();");
+      println("          scanner = new " + className + "(channel.map");
+      println("            (java.nio.channels.FileChannel.MapMode.READ_ONLY, 0, channel.size()));");
+    }
+    else {
+      println("          java.io.Reader reader = new java.io.InputStreamReader(stream, encodingName);");
+      println("          scanner = new " + className + "(reader);");
+    }
     if (scanner.standalone) {
       println("          while ( !scanner.zzAtEOF ) scanner." + scanner.functionName + "();");
     } else if (scanner.cupDebug) {
@@ -218,11 +254,17 @@ public class JavaEmitter extends Emitter {
   }
 
   protected void emitNextInput() {
+    if (scanner.utf8) {
+      emitNextInputUtf8();
+      return;
+    }
+
     println("          if (zzCurrentPosL < zzEndReadL) {");
-    println("            zzInput = Character.codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL);");
-    println("            zzCurrentPosL += Character.charCount(zzInput);");
+    emitReadInput("            ");
     println("          }");
-    println("          else if (zzAtEOF) {");
+    println("          else if (" + atEOF() + ") {");
+    if (scanner.inMemory) // end of in-memory input, see zzRefill() for readers
+      println("            zzCurrentPos  = zzCurrentPosL;");
     println("            zzInput = YYEOF;");
     println("            break zzForAction;");
     println("          }");
@@ -230,8 +272,12 @@ public class JavaEmitter extends Emitter {
     println("            // store back cached positions");
     println("            zzCurrentPos  = zzCurrentPosL;");
     println("            zzMarkedPos   = zzMarkedPosL;");
+    if (lazyLines)
+      println("            zzCountLines(zzStartRead);");
     println("            boolean eof = zzRefill();");
     println("            // get translated positions and possibly new buffer");
+    if (lazyLines)
+      println("            zzLinePos      = zzStartRead;");
     println("            zzCurrentPosL  = zzCurrentPos;");
     println("            zzMarkedPosL   = zzMarkedPos;");
     println("            zzBufferL      = zzBuffer;");
@@ -241,10 +287,173 @@ public class JavaEmitter extends Emitter {
     println("              break zzForAction;");
     println("            }");
     println("            else {");
-    println("              zzInput = Character.codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL);");
-    println("              zzCurrentPosL += Character.charCount(zzInput);");
+    emitReadInput("              ");
+    println("            }");
+    println("          }");
+  }
+
+  /**
+   * Emits the code that reads the code point at zzCurrentPosL into zzInput.
+   * Characters below the surrogate range are code points on their own 
+   * and are taken as they are, only surrogates are decoded.
+   *
+   * @param indent  the indentation of the emitted code
+   */
+  private void emitReadInput(String indent) {
+    println(indent + "zzInput = zzBufferL[zzCurrentPosL];");
+    println(indent + "if (zzInput < Character.MIN_SURROGATE) {");
+    println(indent + "  zzCurrentPosL++;");
+    println(indent + "}");
+    println(indent + "else {");
+    println(indent + "  zzInput = Character.codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL);");
+    println(indent + "  zzCurrentPosL += Character.charCount(zzInput);");
+    println(indent + "}");
+  }
+
+  /**
+   * Emits the tight loops for the states that loop on themselves (see 
+   * findSelfLoops()) at the start of each transition of the lexer method.
+   * The loop only advances zzCurrentPosL (and zzMarkedPosL in final 
+   * states), the input that ends the loop goes through the usual
+   * transition.
+   */
+  private void emitSelfLoops() {
+    Map<String,List<Integer>> tests = new LinkedHashMap<String,List<Integer>>();
+    for (int s = 0; s < dfa.numStates; s++) {
+      String test = selfLoopTest[s];
+      if (test == null) continue;
+      List<Integer> states = tests.get(test);
+      if (states == null) {
+        states = new ArrayList<Integer>();
+        tests.put(test, states);
+      }
+      states.add(s);
+    }
+
+    if (tests.isEmpty()) return;
+
+    println("          if ( (zzAttributes & " + SELF_LOOP + ") == " + SELF_LOOP + " ) {");
+    println("            // skip over the input the state loops on");
+    println("            int zzPos = zzCurrentPosL;");
+    println("            " + (scanner.utf8 ? "byte" : "char") + " zzC;");
+    println("            switch (zzState) {");
+    for (Map.Entry<String,List<Integer>> entry : tests.entrySet()) {
+      for (int s : entry.getValue())
+        println("            case " + s + ":");
+      println("              while (zzPos < zzEndReadL) {");
+      println("                zzC = " + (scanner.utf8 ? "zzBufferL.get(zzPos)" : "zzBufferL[zzPos]") + ";");
+      println("                if (!(" + entry.getKey() + ")) break;");
+      println("                zzPos++;");
+      println("              }");
+      println("              break;");
+    }
+    println("            }");
+    println("            if (zzPos > zzCurrentPosL) {");
+    println("              zzCurrentPosL = zzPos;");
+    println("              if ( (zzAttributes & " + FINAL + ") == " + FINAL + " ) zzMarkedPosL = zzPos;");
+    println("            }");
+    println("          }");
+    println();
+  }
+
+  /**
+   * Emits the code that reads the next code point from the UTF-8 
+   * encoded input of %utf8 scanners. Decodes ASCII inline, and all 
+   * other sequences with zzDecode(). The whole input is in the buffer,
+   * there is no refill.
+   */
+  private void emitNextInputUtf8() {
+    println("          if (zzCurrentPosL < zzEndReadL) {");
+    println("            zzInput = zzBufferL.get(zzCurrentPosL);");
+    println("            if (zzInput >= 0) {");
+    println("              zzCurrentPosL++;");
+    println("            }");
+    println("            else {");
+    println("              zzInput = zzDecode(zzBufferL, zzCurrentPosL, zzEndReadL);");
+    println("              zzCurrentPosL += zzInput >>> 21;");
+    println("              zzInput &= 0x1FFFFF;");
     println("            }");
     println("          }");
+    println("          else {");
+    println("            zzCurrentPos  = zzCurrentPosL;");
+    println("            zzInput = YYEOF;");
+    println("            break zzForAction;");
+    println("          }");
+  }
+
+  /**
+   * Emits the code that finds zzMarkedPos for a general lookahead action 
+   * of a %utf8 scanner. zzFin is indexed relative to zzStartRead, and the
+   * backwards DFA steps over whole UTF-8 sequences.
+   *
+   * @param action  the general lookahead action
+   * @param indent  the indentation of the case label
+   */
+  private void emitGeneralLookUtf8(Action action, String indent) {
+    println(indent + "  // general lookahead, find correct zzMarkedPos");
+    println(indent + "  { int zzFState = " + dfa.entryState[action.getEntryState()] + ";");
+    println(indent + "    int zzFPos = zzStartRead;");
+    println(indent + "    if (zzFin.length <= zzMarkedPos - zzStartRead) { zzFin = new boolean[zzMarkedPos - zzStartRead + 1]; }");
+    println(indent + "    boolean zzFinL[] = zzFin;");
+    println(indent + "    while (zzFState != -1 && zzFPos < zzMarkedPos) {");
+    println(indent + "      zzFinL[zzFPos - zzStartRead] = ((zzAttrL[zzFState] & 1) == 1);");
+    println(indent + "      zzInput = zzDecode(zzBufferL, zzFPos, zzMarkedPos);");
+    println(indent + "      zzFPos += zzInput >>> 21;");
+    println(indent + "      zzInput &= 0x1FFFFF;");
+    println(indent + "      " + transition("zzFState", "zzInput"));
+    println(indent + "    }");
+    println(indent + "    if (zzFState != -1) { zzFinL[zzFPos++ - zzStartRead] = ((zzAttrL[zzFState] & 1) == 1); } ");
+    println(indent + "    while (zzFPos <= zzMarkedPos) {");
+    println(indent + "      zzFinL[zzFPos++ - zzStartRead] = false;");
+    println(indent + "    }");
+    println();
+    println(indent + "    zzFState = " + dfa.entryState[action.getEntryState() + 1] + ";");
+    println(indent + "    zzFPos = zzMarkedPos;");
+    println(indent + "    while (!zzFinL[zzFPos - zzStartRead] || (zzAttrL[zzFState] & 1) != 1) {");
+    println(indent + "      int zzStart = zzCodePointStart(zzFPos - 1);");
+    println(indent + "      zzInput = zzDecode(zzBufferL, zzStart, zzFPos) & 0x1FFFFF;");
+    println(indent + "      zzFPos = zzStart;");
+    println(indent + "      " + transition("zzFState", "zzInput"));
+    println(indent + "    };");
+    println(indent + "    zzMarkedPos = zzFPos;");
+    println(indent + "  }");
+  }
+
+  /**
+   * Emits the code that sets zzAtBOL from the end of the last match 
+   * for %utf8 scanners. The line terminators U+0085, U+2028, and U+2029 
+   * end in a continuation byte, so the bytes before it are checked as well.
+   */
+  private void emitAtBOLUtf8() {
+    println("      if (zzMarkedPosL > zzStartRead) {");
+    println("        switch (zzBufferL.get(zzMarkedPosL-1)) {");
+    println("        case '\\n':");
+    println("        case '\\u000B':");
+    println("        case '\\u000C':");
+    println("          zzAtBOL = true;");
+    println("          break;");
+    println("        case '\\r': ");
+    println("          zzAtBOL = zzMarkedPosL < zzEndReadL && zzBufferL.get(zzMarkedPosL) != '\\n';");
+    println("          break;");
+    println("        case (byte) 0x85: // U+0085 is C2 85");
+    println("          zzAtBOL = zzMarkedPosL-2 >= zzStartRead && zzBufferL.get(zzMarkedPosL-2) == (byte) 0xC2;");
+    println("          break;");
+    println("        case (byte) 0xA8: // U+2028 is E2 80 A8");
+    println("        case (byte) 0xA9: // U+2029 is E2 80 A9");
+    println("          zzAtBOL = zzMarkedPosL-3 >= zzStartRead && zzBufferL.get(zzMarkedPosL-2) == (byte) 0x80");
+    println("                    && zzBufferL.get(zzMarkedPosL-3) == (byte) 0xE2;");
+    println("          break;");
+    println("        default:");
+    println("          zzAtBOL = false;");
+    println("        }");
+    println("      }");
+  }
+
+  /**
+   * Returns the type of the input buffer, char [] or a ByteBuffer for %utf8.
+   */
+  private String bufferType() {
+    return scanner.utf8 ? "java.nio.ByteBuffer" : "char []";
   }
 
   protected void emitUserCode() {
@@ -336,6 +545,11 @@ public class JavaEmitter extends Emitter {
   }
 
   protected void emitDynamicInit() {
+    if (scanner.comb) {
+      emitCombTables();
+      return;
+    }
+
     int count = 0;
     int value = dfa.table[0][0];
 
@@ -371,12 +585,76 @@ public class JavaEmitter extends Emitter {
   }
 
 
-  protected void emitCharMapInitFunction(int packedCharMapPairs) {
+  /**
+   * Emits the row displacement packed transition table, 
+   * see {@link Emitter#packRows()}.
+   */
+  private void emitCombTables() {
+    println("  /** ");
+    println("   * The transition table of the DFA, rows overlaid at their");
+    println("   * offset in ZZ_ROWMAP");
+    println("   */");
 
-    CharClasses cl = parser.getCharClasses();
+    JavaCountEmitter e = new JavaCountEmitter("Trans");
+    e.setValTranslation(+1); // allow vals in [-1, 0xFFFE]
+    e.emitInit();
+
+    int count = 0;
+    int value = combNext[0];
+
+    for (int i = 0; i < combNext.length; i++) {
+      if (combNext[i] == value) {
+        count++;
+      } else {
+        e.emit(count, value);
 
-    if (cl.getMaxCharCode() < 256) return;
+        count = 1;
+        value = combNext[i];
+      }
+    }
+
+    e.emit(count, value);
+    e.emitUnpack();
+
+    println(e.toString());
+
+    println("  /** ");
+    println("   * The row offset each entry of ZZ_TRANS belongs to (0 for none)");
+    println("   */");
+
+    JavaHiLowEmitter c = new JavaHiLowEmitter("Check");
+    c.emitInit();
+    for (int i = 0; i < combCheck.length; i++) {
+      c.emit(combCheck[i]);
+    }
+    c.emitUnpack();
+
+    println(c.toString());
+  }
+
+
+  protected void emitCharMapInitFunction(int packedCharMapPairs) {
+
+    if (!isPagedCharMap()) return;
 
+    println("");
+    println("  /** ");
+    println("   * Unpacks the compressed top-level character map.");
+    println("   *");
+    println("   * @param packed   the packed top-level character map");
+    println("   * @return         the offset of each block in ZZ_CMAP");
+    println("   */");
+    println("  private static int [] zzUnpackCMapTop(String packed) {");
+    println("    int [] map = new int[" + cmapTop.length + "];");
+    println("    int i = 0;  /* index in packed string  */");
+    println("    int j = 0;  /* index in unpacked array */");
+    println("    while (i < packed.length()) {");
+    println("      int count = packed.charAt(i++);");
+    println("      int value = packed.charAt(i++) << " + CMAP_BLOCK_BITS + ";");
+    println("      do map[j++] = value; while (--count > 0);");
+    println("    }");
+    println("    return map;");
+    println("  }");
     println("");
     println("  /** ");
     println("   * Unpacks the compressed character translation table.");
@@ -385,7 +663,7 @@ public class JavaEmitter extends Emitter {
     println("   * @return         the unpacked character translation table");
     println("   */");
     println("  private static char [] zzUnpackCMap(String packed) {");
-    println("    char [] map = new char[0x" + Integer.toHexString(cl.getMaxCharCode() + 1) + "];");
+    println("    char [] map = new char[0x" + Integer.toHexString(cmapBlocks.length) + "];");
     println("    int i = 0;  /* index in packed string  */");
     println("    int j = 0;  /* index in unpacked array */");
     println("    while (i < " + 2 * packedCharMapPairs + ") {");
@@ -435,37 +713,88 @@ public class JavaEmitter extends Emitter {
    * Returns the number of elements in the packed char map
    * array, or zero if the char map array will be not be packed.
    * <p/>
-   * This will be more than intervals.length if the count
-   * for any of the values is more than 0xFFFF, since
-   * the number of char map array entries per value is
+   * The packed char map holds the distinct blocks of the
+   * two-level char map, see {@link Emitter#reduceCharMap()}.
+   * Its number of elements will be more than the number of
+   * runs if the count for any of the values is more than 0xFFFF, 
+   * since the number of char map array entries per value is
    * ceil(count / 0xFFFF)
    */
   protected int emitCharMapArray() {
-    CharClasses cl = parser.getCharClasses();
-
-    if (cl.getMaxCharCode() < 256) {
+    if (!isPagedCharMap()) {
       emitCharMapArrayUnPacked();
       return 0; // the char map array will not be packed
     }
 
-    // ignores cl.getMaxCharCode(), emits all intervals instead
-
-    intervals = cl.getIntervals();
+    reduceCharMap();
 
     println("");
     println("  /** ");
-    println("   * Translates characters to character classes");
+    println("   * Top-level character map: the offset in ZZ_CMAP of the block");
+    println("   * for each " + CMAP_BLOCK_SIZE + " consecutive characters");
+    println("   */");
+    println("  private static final String ZZ_CMAP_TOP_PACKED = ");
+    emitPackedCharMap(cmapTop);
+    println();
+
+    println("  private static final int [] ZZ_CMAP_TOP = zzUnpackCMapTop(ZZ_CMAP_TOP_PACKED);");
+    println();
+
+    println("  /** ");
+    println("   * Second-level character map: translates characters to character");
+    println("   * classes, one block of " + CMAP_BLOCK_SIZE + " characters after the other");
     println("   */");
     println("  private static final String ZZ_CMAP_PACKED = ");
+    int numPairs = emitPackedCharMap(cmapBlocks);
+    println();
 
+    println("  /** ");
+    println("   * Translates characters to character classes");
+    println("   */");
+    println("  private static final char [] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);");
+    println();
+
+    println("  /** ");
+    println("   * Translates ASCII characters to character classes (the start of");
+    println("   * the first block of ZZ_CMAP)");
+    println("   */");
+    println("  private static final char [] ZZ_CMAP_ASCII = {");
+    print("    ");
+    for (int c = 0; c < CMAP_ASCII; c++) {
+      print(cmapBlocks[c], 2);
+      if (c < CMAP_ASCII - 1) {
+        print(", ");
+        if (c % 16 == 15) {
+          println();
+          print("    ");
+        }
+      }
+    }
+    println();
+    println("  };");
+    println();
+    return numPairs;
+  }
+
+  /**
+   * Emits values as run length encoded string constant.
+   *
+   * @param values  the values to emit, each in [0, 0xFFFF]
+   * @return the number of count/value pairs emitted
+   */
+  private int emitPackedCharMap(int [] values) {
     int n = 0;  // numbers of entries in current line
     print("    \"");
 
     int i = 0, numPairs = 0;
     int count, value;
-    while (i < intervals.length) {
-      count = intervals[i].end - intervals[i].start + 1;
-      value = colMap[intervals[i].charClass];
+    while (i < values.length) {
+      value = values[i];
+      count = 0;
+      while (i < values.length && values[i] == value) {
+        count++;
+        i++;
+      }
 
       // count could be >= 0x10000
       while (count > 0xFFFF) {
@@ -479,25 +808,16 @@ public class JavaEmitter extends Emitter {
       printUC(count);
       printUC(value);
 
-      if (i < intervals.length - 1) {
+      if (i < values.length) {
         if (++n >= 10) {
           println("\"+");
           print("    \"");
           n = 0;
         }
       }
-
-      i++;
     }
 
     println("\";");
-    println();
-
-    println("  /** ");
-    println("   * Translates characters to character classes");
-    println("   */");
-    println("  private static final char [] ZZ_CMAP = zzUnpackCMap(ZZ_CMAP_PACKED);");
-    println();
     return numPairs;
   }
 
@@ -510,7 +830,7 @@ public class JavaEmitter extends Emitter {
     JavaHiLowEmitter e = new JavaHiLowEmitter("RowMap");
     e.emitInit();
     for (int i = 0; i < dfa.numStates; i++) {
-      e.emit(rowMap[i] * numCols);
+      e.emit(scanner.comb ? rowBase[rowMap[i]] : rowMap[i] * numCols);
     }
     e.emitUnpack();
     println(e.toString());
@@ -560,11 +880,11 @@ public class JavaEmitter extends Emitter {
       println();
       println("  /* CUP2 code: */");
       println("  private <T> ScannerToken<T> token(Terminal terminal, T value) {");
-      println("    return new ScannerToken<T>(terminal, value, yyline, yycolumn);");
+      println("    return new ScannerToken<T>(terminal, value, " + lineExpr() + ", " + columnExpr() + ");");
       println("  }");
       println();
       println("  private ScannerToken<Object> token(Terminal terminal) {");
-      println("    return new ScannerToken<Object>(terminal, yyline, yycolumn);");
+      println("    return new ScannerToken<Object>(terminal, " + lineExpr() + ", " + columnExpr() + ");");
       println("  }");
       println();
     }
@@ -574,6 +894,8 @@ public class JavaEmitter extends Emitter {
   protected void emitConstructorDecl() {
     emitConstructorDecl(true);
 
+    if (scanner.inMemory && !scanner.utf8) emitInMemoryInput();
+
     if ((scanner.standalone || scanner.debugOption) &&
             scanner.ctorArgs.size() > 0) {
       Out.warning(ErrorMessages.get(ErrorMessages.CTOR_DEBUG));
@@ -582,14 +904,362 @@ public class JavaEmitter extends Emitter {
     }
   }
 
+  /**
+   * Returns the expression that allocates the buffer of a scanner with
+   * a reader.
+   */
+  private String newBuffer() {
+    return scanner.pool ? "zzPoolTake()" : "new char[ZZ_BUFFERSIZE]";
+  }
+
+  /**
+   * Emits the private constructor of %inmemory scanners that runs the
+   * init code. The Reader constructor passes a new buffer, the in-memory
+   * constructors pass none, so that they do not allocate a buffer only
+   * to replace it with the caller's input.
+   */
+  private void emitInitConstructor() {
+    println("  /**");
+    println("   * Creates a new scanner with the given reader and buffer.");
+    println("   *");
+    println("   * @param   in      the java.io.Reader to read input from, null for in-memory input");
+    println("   * @param   buffer  the buffer for the reader, null for in-memory input");
+    println("   */");
+    print("  private " + getBaseName(scanner.className) + "(java.io.Reader in, char [] buffer");
+    emitCtorArgs();
+    print(")");
+    if (scanner.initThrow != null) print(" throws " + scanner.initThrow);
+    println(" {");
+    if (scanner.initCode != null) {
+      print("  ");
+      print(scanner.initCode);
+    }
+    println("    this.zzReader = in;");
+    println("    this.zzBuffer = buffer;");
+    println("  }");
+    println();
+  }
+
+  /**
+   * Emits the constructors and reset methods for in-memory input (%inmemory).
+   */
+  private void emitInMemoryInput() {
+    String name = getBaseName(scanner.className);
+    String modifier = scanner.isPublic ? "public " : "";
+
+    StringBuilder args = new StringBuilder();
+    for (String arg : scanner.ctorArgs)
+      args.append(", ").append(arg);
+
+    println("  /**");
+    println("   * Creates a new scanner that scans the characters ");
+    println("   * <code>buf[offset]</code> to <code>buf[offset+length-1]</code>");
+    println("   * in place. The array must not be changed while it is scanned.");
+    println("   *");
+    println("   * @param   buf     the input");
+    println("   * @param   offset  the index of the first character to scan");
+    println("   * @param   length  the number of characters to scan");
+    println("   */");
+    print("  " + modifier + name + "(char [] buf, int offset, int length");
+    emitCtorArgs();
+    print(")");
+    if (scanner.initThrow != null) print(" throws " + scanner.initThrow);
+    println(" {");
+    println("    this((java.io.Reader) null, (char []) null" + args + ");");
+    println("    zzSetInput(buf, offset, length);");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Creates a new scanner that scans the characters of a CharSequence.");
+    println("   * A java.nio.CharBuffer with an accessible array is scanned in place,");
+    println("   * other CharSequences are copied once.");
+    println("   *");
+    println("   * @param   in  the input");
+    println("   */");
+    print("  " + modifier + name + "(CharSequence in");
+    emitCtorArgs();
+    print(")");
+    if (scanner.initThrow != null) print(" throws " + scanner.initThrow);
+    println(" {");
+    println("    this((java.io.Reader) null, (char []) null" + args + ");");
+    println("    zzSetInput(in);");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Resets the scanner to scan the characters <code>buf[offset]</code>");
+    println("   * to <code>buf[offset+length-1]</code> in place.");
+    println("   *");
+    println("   * All internal variables are reset, the lexical state is set to ");
+    println("   * <tt>ZZ_INITIAL</tt>. The scanner keeps no buffer of its own.");
+    println("   *");
+    println("   * @param   buf     the input");
+    println("   * @param   offset  the index of the first character to scan");
+    println("   * @param   length  the number of characters to scan");
+    println("   */");
+    println("  " + visibility + " final void yyreset(char [] buf, int offset, int length) {");
+    emitResetState();
+    println("    zzSetInput(buf, offset, length);");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Resets the scanner to scan the characters of a CharSequence, ");
+    println("   * see yyreset(char [], int, int).");
+    println("   *");
+    println("   * @param   in  the input");
+    println("   */");
+    println("  " + visibility + " final void yyreset(CharSequence in) {");
+    emitResetState();
+    println("    zzSetInput(in);");
+    println("  }");
+    println();
+
+    println("  private void zzSetInput(char [] buf, int offset, int length) {");
+    if (scanner.pool) {
+      println("    /* without a reader, zzBuffer is in-memory input of the caller */");
+      println("    if (zzReader != null) zzPoolGive(zzBuffer);");
+    }
+    println("    zzReader = null;");
+    println("    zzBuffer = buf;");
+    println("    zzStartRead = zzCurrentPos = zzMarkedPos = offset;");
+    if (lazyLines) {
+      println("    zzLinePos = offset;");
+      println("    zzLineR = false;");
+    }
+    println("    zzEndRead = offset + length;");
+    println("    zzFinalHighSurrogate = 0;");
+    println("  }");
+    println();
+
+    println("  private void zzSetInput(CharSequence in) {");
+    println("    if (in instanceof java.nio.CharBuffer && ((java.nio.CharBuffer) in).hasArray()) {");
+    println("      java.nio.CharBuffer buf = (java.nio.CharBuffer) in;");
+    println("      zzSetInput(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());");
+    println("    }");
+    println("    else {");
+    println("      zzSetInput(in.toString().toCharArray(), 0, in.length());");
+    println("    }");
+    println("  }");
+    println();
+  }
+
+  /**
+   * Emits the buffer pool of %pool and yyrelease. 
+   *
+   * The pool is shared by all scanners of the class and keeps at most
+   * scanner.poolSize buffers. The skeleton takes the buffer of a new
+   * scanner from the pool (see Skeleton.makePooled), and yyrelease
+   * puts it back.
+   */
+  private void emitBufferPool() {
+    if (!scanner.pool) return;
+
+    int retain = scanner.poolRetain > 0 ? scanner.poolRetain : 4 * scanner.bufferSize;
+    retain = Math.max(retain, scanner.bufferSize);
+
+    println("  /** the largest buffer that is kept by yyreset and in the pool */");
+    println("  private static final int ZZ_POOL_RETAIN = " + retain + ";");
+    println();
+    println("  /** the buffers of released scanners, see yyrelease() */");
+    println("  private static final char [][] zzPool = new char [" + scanner.poolSize + "][];");
+    println();
+    println("  /** the number of buffers in zzPool */");
+    println("  private static int zzPoolSize;");
+    println();
+    println("  /** the buffer of released scanners */");
+    println("  private static final char [] ZZ_NO_BUFFER = new char [0];");
+    println();
+    println("  /**");
+    println("   * Takes a buffer from the pool, or allocates a new one if the pool is empty.");
+    println("   */");
+    println("  private static char [] zzPoolTake() {");
+    println("    synchronized (zzPool) {");
+    println("      if (zzPoolSize > 0) {");
+    println("        char [] buffer = zzPool[--zzPoolSize];");
+    println("        zzPool[zzPoolSize] = null;");
+    println("        return buffer;");
+    println("      }");
+    println("    }");
+    println("    return new char[ZZ_BUFFERSIZE];");
+    println("  }");
+    println();
+    println("  /**");
+    println("   * Puts a buffer into the pool, unless the pool is full or the");
+    println("   * buffer is larger than ZZ_POOL_RETAIN.");
+    println("   */");
+    println("  private static void zzPoolGive(char [] buffer) {");
+    println("    if (buffer.length > ZZ_POOL_RETAIN) return;");
+    println("    synchronized (zzPool) {");
+    println("      if (zzPoolSize < zzPool.length) zzPool[zzPoolSize++] = buffer;");
+    println("    }");
+    println("  }");
+    println();
+    println("  /**");
+    println("   * Puts the buffer of this scanner back into the pool for other");
+    println("   * scanners of this class. Does not close the reader.");
+    println("   *");
+    println("   * The scanner is at the end of input afterwards, it can be used");
+    println("   * again after yyreset.");
+    println("   */");
+    println("  " + visibility + " final void yyrelease() {");
+    println("    /* without a reader, zzBuffer is in-memory input of the caller */");
+    println("    if (zzReader != null) zzPoolGive(zzBuffer);");
+    println("    zzBuffer = ZZ_NO_BUFFER;");
+    println("    zzReader = null;");
+    println("    zzAtEOF = true;");
+    println("    zzEndRead = zzStartRead = 0;");
+    println("    zzCurrentPos = zzMarkedPos = 0;");
+    println("    zzFinalHighSurrogate = 0;");
+    println("  }");
+    println();
+  }
+
+  /**
+   * Returns the expression for the current line in generated code, 
+   * yyline() for %lazylines.
+   */
+  private String lineExpr() {
+    return lazyLines ? "yyline()" : "yyline";
+  }
+
+  /**
+   * Returns the expression for the current column in generated code, 
+   * yycolumn() for %lazylines.
+   */
+  private String columnExpr() {
+    return lazyLines ? "yycolumn()" : "yycolumn";
+  }
+
+  /**
+   * Emits zzCountLines and the accessors yyline() and yycolumn() for 
+   * %lazylines.
+   *
+   * Lines and columns are not counted for every token, but only when 
+   * they are asked for and before zzRefill discards the text before 
+   * zzStartRead. A \r is counted when the next character is known, so
+   * that \r\n is counted once at its \n, as in the lexer method.
+   */
+  private void emitLazyLines() {
+    if (!lazyLines) return;
+
+    String peek = scanner.utf8 ? "zzBuffer.get(zzStartRead)" : "zzBuffer[zzStartRead]";
+
+    println("  /**");
+    println("   * Counts lines and columns from zzLinePos up to the specified");
+    println("   * position in zzBuffer.");
+    println("   */");
+    println("  private void zzCountLines(int end) {");
+    println("    " + bufferType() + " zzBufferL = zzBuffer;");
+    println("    int zzPos = zzLinePos;");
+    println("    while (zzPos < end) {");
+    if (scanner.utf8) {
+      println("      int zzCh = zzDecode(zzBufferL, zzPos, end);");
+      println("      int zzCharCount = zzCh >>> 21;");
+      println("      zzCh &= 0x1FFFFF;");
+      println("      zzPos += zzCharCount;");
+    }
+    else {
+      println("      char zzCh = zzBufferL[zzPos++];");
+    }
+    println("      if (zzLineR) {");
+    println("        zzLineR = false;");
+    if (scanner.lineCount)
+      println("        if (zzCh != '\\n') yyline++;");
+    println("      }");
+    println("      switch (zzCh) {");
+    println("      case '\\r':");
+    println("        zzLineR = true;");
+    if (scanner.columnCount)
+      println("        yycolumn = 0;");
+    println("        break;");
+    println("      case '\\n':");
+    println("      case '\\u000B':");
+    println("      case '\\u000C':");
+    println("      case '\\u0085':");
+    println("      case '\\u2028':");
+    println("      case '\\u2029':");
+    if (scanner.lineCount)
+      println("        yyline++;");
+    if (scanner.columnCount)
+      println("        yycolumn = 0;");
+    println("        break;");
+    println("      default:");
+    if (scanner.columnCount)
+      println("        yycolumn" + (scanner.utf8 ? " += zzCharCount;" : "++;"));
+    println("      }");
+    println("    }");
+    println("    zzLinePos = end;");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Counts lines and columns up to the start of the matched text.");
+    println("   */");
+    println("  private void zzCountLines() {");
+    println("    if (zzLinePos < zzStartRead) zzCountLines(zzStartRead);");
+    println("    if (zzLineR && (zzStartRead >= zzEndRead || " + peek + " != '\\n')) {");
+    println("      zzLineR = false;");
+    if (scanner.lineCount)
+      println("      yyline++;");
+    println("    }");
+    println("  }");
+    println();
+
+    if (scanner.lineCount) {
+      println("  /**");
+      println("   * Returns the line of the start of the matched text, counted from 0.");
+      println("   */");
+      println("  " + visibility + " final int yyline() {");
+      println("    zzCountLines();");
+      println("    return yyline;");
+      println("  }");
+      println();
+    }
+
+    if (scanner.columnCount) {
+      println("  /**");
+      println("   * Returns the column of the start of the matched text, counted from 0.");
+      println("   */");
+      println("  " + visibility + " final int yycolumn() {");
+      println("    zzCountLines();");
+      println("    return yycolumn;");
+      println("  }");
+      println();
+    }
+  }
+
+  /**
+   * Emits the statements of yyreset(Reader) that reset the scanner state.
+   */
+  private void emitResetState() {
+    println("    zzAtBOL  = true;");
+    println("    zzAtEOF  = false;");
+    println("    zzEOFDone = false;");
+    println("    yyline = yychar = yycolumn = 0;");
+    println("    zzLexicalState = YYINITIAL;");
+  }
+
   protected void emitConstructorDecl(boolean printCtorArgs) {
+    boolean emitInputStreamCtor = scanner.emitInputStreamCtor && !scanner.utf8;
+    boolean inMemory = scanner.inMemory && !scanner.utf8;
+
     println("  /**");
     println("   * Creates a new scanner");
-    if (scanner.emitInputStreamCtor) {
+    if (emitInputStreamCtor) {
       println("   * There is also a java.io.InputStream version of this constructor.");
     }
     println("   *");
-    println("   * @param   in  the java.io.Reader to read input from.");
+    if (scanner.utf8) {
+      println("   * Scans the UTF-8 encoded bytes from the position to the limit of");
+      println("   * <code>in</code>, without changing its position and limit.");
+      println("   *");
+      println("   * @param   in  the java.nio.ByteBuffer to read input from.");
+    }
+    else {
+      println("   * @param   in  the java.io.Reader to read input from.");
+    }
     println("   */");
 
     String warn =
@@ -602,7 +1272,7 @@ public class JavaEmitter extends Emitter {
 
     if (scanner.isPublic) print("public ");
     print(getBaseName(scanner.className));
-    print("(java.io.Reader in");
+    print(scanner.utf8 ? "(java.nio.ByteBuffer in" : "(java.io.Reader in");
     if (printCtorArgs) emitCtorArgs();
     print(")");
 
@@ -613,18 +1283,35 @@ public class JavaEmitter extends Emitter {
 
     println(" {");
 
-    if (scanner.initCode != null && printCtorArgs) {
-      print("  ");
-      print(scanner.initCode);
+    if (scanner.utf8)
+      println("    yyreset(in);");
+
+    if (inMemory && printCtorArgs) {
+      print("    this(in, " + newBuffer());
+      for (String arg : scanner.ctorArgs)
+        print(", " + arg);
+      println(");");
     }
+    else {
+      if (scanner.initCode != null && printCtorArgs) {
+        print("  ");
+        print(scanner.initCode);
+      }
 
-    println("    this.zzReader = in;");
+      if (!scanner.utf8)
+        println("    this.zzReader = in;");
+
+      if (inMemory)
+        println("    this.zzBuffer = " + newBuffer() + ";");
+    }
 
     println("  }");
     println();
 
+    if (inMemory && printCtorArgs) emitInitConstructor();
 
-    if (scanner.emitInputStreamCtor) {
+
+    if (emitInputStreamCtor) {
       Out.warning(ErrorMessages.EMITTING_INPUTSTREAM_CTOR, -1);
       println("  /**");
       println("   * Creates a new scanner.");
@@ -702,39 +1389,31 @@ public class JavaEmitter extends Emitter {
       print("  " + visibility + " ");
     }
 
-    if (scanner.tokenType == null) {
-      if (scanner.isInteger)
-        print("int");
-      else if (scanner.isIntWrap)
-        print("Integer");
-      else
-        print("Yytoken");
-    } else
-      print(scanner.tokenType);
+    print(lexFunctType());
 
     print(" ");
 
     print(scanner.functionName);
 
-    print("() throws java.io.IOException");
+    print("()");
 
-    if (scanner.lexThrow != null) {
-      print(", ");
-      print(scanner.lexThrow);
-    }
-
-    if (scanner.scanErrorException != null) {
-      print(", ");
-      print(scanner.scanErrorException);
-    }
+    emitLexFunctThrows();
 
     println(" {");
 
     skel.emitNext();
 
-    println("    int [] zzTransL = ZZ_TRANS;");
-    println("    int [] zzRowMapL = ZZ_ROWMAP;");
+    if (needsTransTable()) {
+      println("    int [] zzTransL = ZZ_TRANS;");
+      if (scanner.comb)
+        println("    int [] zzCheckL = ZZ_CHECK;");
+      println("    int [] zzRowMapL = ZZ_ROWMAP;");
+    }
     println("    int [] zzAttrL = ZZ_ATTRIBUTE;");
+    if (isPagedCharMap()) {
+      println("    int [] zzCMapTopL = ZZ_CMAP_TOP;");
+      println("    char [] zzCMapAsciiL = ZZ_CMAP_ASCII;");
+    }
 
     skel.emitNext();
 
@@ -743,15 +1422,22 @@ public class JavaEmitter extends Emitter {
       println("");
     }
 
-    if (scanner.lineCount || scanner.columnCount) {
+    if ((scanner.lineCount || scanner.columnCount) && !lazyLines) {
       println("      boolean zzR = false;");
       println("      int zzCh;");
       println("      int zzCharCount;");
       println("      for (zzCurrentPosL = zzStartRead  ;");
       println("           zzCurrentPosL < zzMarkedPosL ;");
       println("           zzCurrentPosL += zzCharCount ) {");
-      println("        zzCh = Character.codePointAt(zzBufferL, zzCurrentPosL, zzMarkedPosL);");
-      println("        zzCharCount = Character.charCount(zzCh);");
+      if (scanner.utf8) {
+        println("        zzCh = zzDecode(zzBufferL, zzCurrentPosL, zzMarkedPosL);");
+        println("        zzCharCount = zzCh >>> 21;");
+        println("        zzCh &= 0x1FFFFF;");
+      }
+      else {
+        println("        zzCh = Character.codePointAt(zzBufferL, zzCurrentPosL, zzMarkedPosL);");
+        println("        zzCharCount = Character.charCount(zzCh);");
+      }
       println("        switch (zzCh) {");
       println("        case '\\u000B':");
       println("        case '\\u000C':");
@@ -793,20 +1479,25 @@ public class JavaEmitter extends Emitter {
         println("      if (zzR) {");
         println("        // peek one character ahead if it is \\n (if we have counted one line too much)");
         println("        boolean zzPeek;");
-        println("        if (zzMarkedPosL < zzEndReadL)");
-        println("          zzPeek = zzBufferL[zzMarkedPosL] == '\\n';");
-        println("        else if (zzAtEOF)");
-        println("          zzPeek = false;");
-        println("        else {");
-        println("          boolean eof = zzRefill();");
-        println("          zzEndReadL = zzEndRead;");
-        println("          zzMarkedPosL = zzMarkedPos;");
-        println("          zzBufferL = zzBuffer;");
-        println("          if (eof) ");
-        println("            zzPeek = false;");
-        println("          else ");
-        println("            zzPeek = zzBufferL[zzMarkedPosL] == '\\n';");
-        println("        }");
+        if (scanner.utf8) {
+          println("        zzPeek = zzMarkedPosL < zzEndReadL && zzBufferL.get(zzMarkedPosL) == '\\n';");
+        }
+        else {
+          println("        if (zzMarkedPosL < zzEndReadL)");
+          println("          zzPeek = zzBufferL[zzMarkedPosL] == '\\n';");
+          println("        else if (" + atEOF() + ")");
+          println("          zzPeek = false;");
+          println("        else {");
+          println("          boolean eof = zzRefill();");
+          println("          zzEndReadL = zzEndRead;");
+          println("          zzMarkedPosL = zzMarkedPos;");
+          println("          zzBufferL = zzBuffer;");
+          println("          if (eof) ");
+          println("            zzPeek = false;");
+          println("          else ");
+          println("            zzPeek = zzBufferL[zzMarkedPosL] == '\\n';");
+          println("        }");
+        }
         println("        if (zzPeek) yyline--;");
         println("      }");
       }
@@ -816,6 +1507,10 @@ public class JavaEmitter extends Emitter {
       // zzMarkedPos > zzStartRead <=> last match was not empty
       // if match was empty, last value of zzAtBOL can be used
       // zzStartRead is always >= 0
+      if (scanner.utf8) {
+        emitAtBOLUtf8();
+      }
+      else {
       println("      if (zzMarkedPosL > zzStartRead) {");
       println("        switch (zzBufferL[zzMarkedPosL-1]) {");
       println("        case '\\n':");
@@ -829,10 +1524,14 @@ public class JavaEmitter extends Emitter {
       println("        case '\\r': ");
       println("          if (zzMarkedPosL < zzEndReadL)");
       println("            zzAtBOL = zzBufferL[zzMarkedPosL] != '\\n';");
-      println("          else if (zzAtEOF)");
+      println("          else if (" + atEOF() + ")");
       println("            zzAtBOL = false;");
       println("          else {");
+      if (lazyLines)
+        println("            zzCountLines(zzStartRead);");
       println("            boolean eof = zzRefill();");
+      if (lazyLines)
+        println("            zzLinePos = zzStartRead;");
       println("            zzMarkedPosL = zzMarkedPos;");
       println("            zzEndReadL = zzEndRead;");
       println("            zzBufferL = zzBuffer;");
@@ -846,6 +1545,7 @@ public class JavaEmitter extends Emitter {
       println("          zzAtBOL = false;");
       println("        }");
       println("      }");
+      }
     }
 
     skel.emitNext();
@@ -872,13 +1572,228 @@ public class JavaEmitter extends Emitter {
   }
 
 
-  protected void emitGetRowMapNext() {
-    println("          int zzNext = zzTransL[ zzRowMapL[zzState] + zzCMapL[zzInput] ];");
-    println("          if (zzNext == " + DFA.NO_TARGET + ") break zzForAction;");
-    println("          zzState = zzNext;");
+  /**
+   * Returns the return type of the lexer method.
+   */
+  private String lexFunctType() {
+    if (scanner.tokenType != null) return scanner.tokenType;
+    if (scanner.isInteger) return "int";
+    if (scanner.isIntWrap) return "Integer";
+    return "Yytoken";
+  }
+
+  /**
+   * Returns the type of values of a method return type, i.e. the 
+   * return type without leading type parameters (%type may declare
+   * the lexer method generic).
+   */
+  private static String valueType(String type) {
+    if (!type.startsWith("<")) return type;
+
+    int depth = 0;
+    for (int i = 0; i < type.length(); i++) {
+      char c = type.charAt(i);
+      if (c == '<') depth++;
+      if (c == '>' && --depth == 0) return type.substring(i+1).trim();
+    }
+    return type;
+  }
+
+  /**
+   * Returns the default value of a type (for returning from action
+   * methods when the action does not return a value).
+   */
+  private static String defaultValue(String type) {
+    if (type.equals("boolean")) return "false";
+    if (type.equals("byte") || type.equals("short") || type.equals("char") ||
+        type.equals("int") || type.equals("long") || type.equals("float") ||
+        type.equals("double"))
+      return "0";
+    return "null";
+  }
+
+  /**
+   * Emits the throws clause of the lexer method.
+   */
+  private void emitLexFunctThrows() {
+    print(" throws java.io.IOException");
+
+    if (scanner.lexThrow != null) {
+      print(", ");
+      print(scanner.lexThrow);
+    }
+
+    if (scanner.scanErrorException != null) {
+      print(", ");
+      print(scanner.scanErrorException);
+    }
+  }
+
+  /**
+   * Estimates the bytecode size of a piece of Java code.
+   *
+   * Only a rough guess: about one byte of bytecode for every four
+   * characters of source code outside white space and comments.
+   */
+  private static int estimateCodeSize(String code) {
+    int chars = 0;
+    int n = code.length();
+    for (int i = 0; i < n; i++) {
+      char c = code.charAt(i);
+      if (c == '/' && i+1 < n && code.charAt(i+1) == '/') {
+        while (i < n && code.charAt(i) != '\n') i++;
+      }
+      else if (c == '/' && i+1 < n && code.charAt(i+1) == '*') {
+        int close = code.indexOf("*/", i+2);
+        i = close < 0 ? n : close+1;
+      }
+      else if (!Character.isWhitespace(c)) {
+        chars++;
+      }
+    }
+    return chars / 4;
+  }
+
+  /**
+   * Estimates the bytecode size of an action in the action switch,
+   * including the lookahead code and debug output.
+   */
+  private int estimateActionSize(Action action) {
+    int size = 16 + estimateCodeSize(action.content);
+
+    if (batchValue(action) != null) size += 40;
+
+    switch (action.lookAhead()) {
+    case Action.FIXED_BASE:
+    case Action.FIXED_LOOK:
+    case Action.FINITE_CHOICE:
+      size += 20;
+      break;
+    case Action.GENERAL_LOOK:
+      size += scanner.comb ? 260 : 200;
+      break;
+    }
+
+    if (scanner.debugOption)
+      size += 40 + (scanner.lineCount ? 10 : 0) + (scanner.columnCount ? 10 : 0);
+
+    return size;
+  }
+
+  /**
+   * Estimates the bytecode size of the lexer method and warns if the 
+   * JVM will not JIT compile it.
+   */
+  private void checkLexFunctSize() {
+    int size = LEX_FUNCT_SIZE;
+
+    if ((scanner.lineCount || scanner.columnCount) && !lazyLines) size += 320;
+    if (scanner.bolUsed) size += 250;
+    if (scanner.comb && !direct) size += 30;
+    if (isPagedCharMap()) size += 30;
+    if (direct) size += directSize;
+
+    for (String test : selfLoopTest)
+      if (test != null) size += 30 + estimateCodeSize(test);
+
+    if (actionGroups == null) {
+      for (Action action : actionTable.keySet())
+        size += estimateActionSize(action);
+    }
+    else {
+      size += 30 * actionGroups.size();
+    }
+
+    EOFActions eofActions = parser.getEOFActions();
+    for (String name : scanner.states.names()) {
+      Action action = eofActions.getAction(scanner.states.getNumber(name));
+      if (action != null) size += 12 + estimateCodeSize(action.content);
+    }
+    if (eofActions.getDefault() != null)
+      size += estimateCodeSize(eofActions.getDefault().content);
+
+    if (size > HUGE_METHOD_LIMIT)
+      Out.warning(ErrorMessages.get(ErrorMessages.HUGE_METHOD, scanner.functionName,
+                                    String.valueOf(size)));
+  }
+
+  /**
+   * Returns the expression that translates a character to its
+   * character class, using the char map locals of the lexer function.
+   *
+   * @param input  the variable holding the character
+   */
+  protected String charMapLookup(String input) {
+    if (!isPagedCharMap()) return "zzCMapL[" + input + "]";
+
+    return "(" + input + " < 0x" + Integer.toHexString(CMAP_ASCII) + " ? zzCMapAsciiL[" + input + "] : "
+        + "zzCMapL[zzCMapTopL[" + input + " >> " + CMAP_BLOCK_BITS + "] | ("
+        + input + " & 0x" + Integer.toHexString(CMAP_BLOCK_SIZE - 1) + ")])";
+  }
+
+  /**
+   * Returns the statement that moves the state in variable state
+   * along the transition for the character in variable input.
+   */
+  private String transition(String state, String input) {
+    if (!scanner.comb)
+      return state + " = zzTransL[ zzRowMapL[" + state + "] + " + charMapLookup(input) + " ];";
+
+    return "{ int zzBase = zzRowMapL[" + state + "]; int zzIdx = zzBase + " + charMapLookup(input) + ";"
+        + " " + state + " = zzCheckL[zzIdx] == zzBase ? zzTransL[zzIdx] : " + DFA.NO_TARGET + "; }";
+  }
+
+  /**
+   * Emits the transitions of the DFA as nested switch statements on
+   * the current state and the character class of the input (%codegen direct).
+   * Also sets zzAttributes to the attributes of the new state.
+   */
+  private void emitDirectTransitions() {
+    println("          int zzClass = " + charMapLookup("zzInput") + ";");
+    println("          switch (zzState) {");
+    for (int s = 0; s < dfa.numStates; s++) {
+      if (!isTransition[s]) continue;
+      println("            case " + s + ":");
+      println("              switch (zzClass) {");
+      Map<Integer,List<Integer>> targets = directTransitions(s);
+      for (Map.Entry<Integer,List<Integer>> entry : targets.entrySet()) {
+        List<Integer> cols = entry.getValue();
+        for (int i = 0; i < cols.size(); i++) {
+          if (i % 8 == 0) print("                ");
+          print("case " + cols.get(i) + ":");
+          if (i % 8 == 7 || i == cols.size() - 1) println();
+          else print(" ");
+        }
+        int target = entry.getKey();
+        println("                  zzState = " + target + "; zzAttributes = " + attribute(target) + "; break;");
+      }
+      println("                default: break zzForAction;");
+      println("              }");
+      println("              break;");
+    }
+    println("            default:");
+    println("              break zzForAction;");
+    println("          }");
     println();
+  }
 
-    println("          zzAttributes = zzAttrL[zzState];");
+  protected void emitGetRowMapNext() {
+    if (direct) {
+      emitDirectTransitions();
+    } else if (scanner.comb) {
+      println("          int zzBase = zzRowMapL[zzState];");
+      println("          int zzNext = zzBase + " + charMapLookup("zzInput") + ";");
+      println("          zzNext = zzCheckL[zzNext] == zzBase ? zzTransL[zzNext] : " + DFA.NO_TARGET + ";");
+    } else {
+      println("          int zzNext = zzTransL[ zzRowMapL[zzState] + " + charMapLookup("zzInput") + " ];");
+    }
+    if (!direct) {
+      println("          if (zzNext == " + DFA.NO_TARGET + ") break zzForAction;");
+      println("          zzState = zzNext;");
+      println();
+
+      println("          zzAttributes = zzAttrL[zzState];");
+    }
 
     println("          if ( (zzAttributes & " + FINAL + ") == " + FINAL + " ) {");
 
@@ -931,72 +1846,308 @@ public class JavaEmitter extends Emitter {
   }
 
   protected void emitActions() {
+    if (scanner.splitActions) {
+      emitActionDispatch();
+      return;
+    }
+
     println("        switch (zzAction < 0 ? zzAction : ZZ_ACTION[zzAction]) {");
 
-    int i = actionTable.size() + 1;
+    emitActionCases(new ArrayList<Map.Entry<Action, Integer>>(actionTable.entrySet()), 
+                    actionTable.size() + 1, "          ");
+  }
 
-    for (Map.Entry<Action, Integer> entry : actionTable.entrySet()) {
+  /**
+   * Emits the cases of the action switch for the specified actions.
+   *
+   * @param actions  the actions with their labels
+   * @param label    the first label for the break cases
+   * @param indent   the indentation of the case labels
+   */
+  private void emitActionCases(List<Map.Entry<Action, Integer>> actions, int label, String indent) {
+    int i = label;
+
+    for (Map.Entry<Action, Integer> entry : actions) {
       Action action = entry.getKey();
-      int label = entry.getValue();
 
-      println("          case " + label + ": ");
+      println(indent + "case " + entry.getValue() + ": ");
 
       if (action.lookAhead() == Action.FIXED_BASE) {
-        println("            // lookahead expression with fixed base length");
-        println("            zzMarkedPos = Character.offsetByCodePoints");
-        println("                (zzBufferL, zzStartRead, zzEndRead - zzStartRead, zzStartRead, " + action.getLookLength() + ");");
+        println(indent + "  // lookahead expression with fixed base length");
+        if (scanner.utf8)
+          println(indent + "  zzMarkedPos = zzOffsetByCodePoints(zzStartRead, " + action.getLookLength() + ");");
+        else {
+        println(indent + "  zzMarkedPos = Character.offsetByCodePoints");
+        println(indent + "      (zzBufferL, zzStartRead, zzEndRead - zzStartRead, zzStartRead, " + action.getLookLength() + ");");
+        }
       }
 
       if (action.lookAhead() == Action.FIXED_LOOK ||
               action.lookAhead() == Action.FINITE_CHOICE) {
-        println("            // lookahead expression with fixed lookahead length");
-        println("            zzMarkedPos = Character.offsetByCodePoints");
-        println("                (zzBufferL, zzStartRead, zzEndRead - zzStartRead, zzMarkedPos, -" + action.getLookLength() + ");");
+        println(indent + "  // lookahead expression with fixed lookahead length");
+        if (scanner.utf8)
+          println(indent + "  zzMarkedPos = zzOffsetByCodePoints(zzMarkedPos, -" + action.getLookLength() + ");");
+        else {
+        println(indent + "  zzMarkedPos = Character.offsetByCodePoints");
+        println(indent + "      (zzBufferL, zzStartRead, zzEndRead - zzStartRead, zzMarkedPos, -" + action.getLookLength() + ");");
+        }
       }
 
-      if (action.lookAhead() == Action.GENERAL_LOOK) {
-        println("            // general lookahead, find correct zzMarkedPos");
-        println("            { int zzFState = " + dfa.entryState[action.getEntryState()] + ";");
-        println("              int zzFPos = zzStartRead;");
-        println("              if (zzFin.length <= zzBufferL.length) { zzFin = new boolean[zzBufferL.length+1]; }");
-        println("              boolean zzFinL[] = zzFin;");
-        println("              while (zzFState != -1 && zzFPos < zzMarkedPos) {");
-        println("                zzFinL[zzFPos] = ((zzAttrL[zzFState] & 1) == 1);");
-        println("                zzInput = Character.codePointAt(zzBufferL, zzFPos, zzMarkedPos);");
-        println("                zzFPos += Character.charCount(zzInput);");
-        println("                zzFState = zzTransL[ zzRowMapL[zzFState] + zzCMapL[zzInput] ];");
-        println("              }");
-        println("              if (zzFState != -1) { zzFinL[zzFPos++] = ((zzAttrL[zzFState] & 1) == 1); } ");
-        println("              while (zzFPos <= zzMarkedPos) {");
-        println("                zzFinL[zzFPos++] = false;");
-        println("              }");
+      if (action.lookAhead() == Action.GENERAL_LOOK && scanner.utf8) {
+        emitGeneralLookUtf8(action, indent);
+      }
+      else if (action.lookAhead() == Action.GENERAL_LOOK) {
+        println(indent + "  // general lookahead, find correct zzMarkedPos");
+        println(indent + "  { int zzFState = " + dfa.entryState[action.getEntryState()] + ";");
+        println(indent + "    int zzFPos = zzStartRead;");
+        println(indent + "    if (zzFin.length <= zzBufferL.length) { zzFin = new boolean[zzBufferL.length+1]; }");
+        println(indent + "    boolean zzFinL[] = zzFin;");
+        println(indent + "    while (zzFState != -1 && zzFPos < zzMarkedPos) {");
+        println(indent + "      zzFinL[zzFPos] = ((zzAttrL[zzFState] & 1) == 1);");
+        println(indent + "      zzInput = Character.codePointAt(zzBufferL, zzFPos, zzMarkedPos);");
+        println(indent + "      zzFPos += Character.charCount(zzInput);");
+        println(indent + "      " + transition("zzFState", "zzInput"));
+        println(indent + "    }");
+        println(indent + "    if (zzFState != -1) { zzFinL[zzFPos++] = ((zzAttrL[zzFState] & 1) == 1); } ");
+        println(indent + "    while (zzFPos <= zzMarkedPos) {");
+        println(indent + "      zzFinL[zzFPos++] = false;");
+        println(indent + "    }");
         println();
-        println("              zzFState = " + dfa.entryState[action.getEntryState() + 1] + ";");
-        println("              zzFPos = zzMarkedPos;");
-        println("              while (!zzFinL[zzFPos] || (zzAttrL[zzFState] & 1) != 1) {");
-        println("                zzInput = Character.codePointBefore(zzBufferL, zzFPos, zzStartRead);");
-        println("                zzFPos -= Character.charCount(zzInput);");
-        println("                zzFState = zzTransL[ zzRowMapL[zzFState] + zzCMapL[zzInput] ];");
-        println("              };");
-        println("              zzMarkedPos = zzFPos;");
-        println("            }");
+        println(indent + "    zzFState = " + dfa.entryState[action.getEntryState() + 1] + ";");
+        println(indent + "    zzFPos = zzMarkedPos;");
+        println(indent + "    while (!zzFinL[zzFPos] || (zzAttrL[zzFState] & 1) != 1) {");
+        println(indent + "      zzInput = Character.codePointBefore(zzBufferL, zzFPos, zzStartRead);");
+        println(indent + "      zzFPos -= Character.charCount(zzInput);");
+        println(indent + "      " + transition("zzFState", "zzInput"));
+        println(indent + "    };");
+        println(indent + "    zzMarkedPos = zzFPos;");
+        println(indent + "  }");
       }
 
       if (scanner.debugOption) {
-        print("            System.out.println(");
+        print(indent + "  System.out.println(");
         if (scanner.lineCount)
-          print("\"line: \"+(yyline+1)+\" \"+");
+          print("\"line: \"+(" + lineExpr() + "+1)+\" \"+");
         if (scanner.columnCount)
-          print("\"col: \"+(yycolumn+1)+\" \"+");
+          print("\"col: \"+(" + columnExpr() + "+1)+\" \"+");
         println("\"match: --\"+zzToPrintable(yytext())+\"--\");");
-        print("            System.out.println(\"action [" + action.priority + "] { ");
+        print(indent + "  System.out.println(\"action [" + action.priority + "] { ");
         print(escapify(action.content));
         println(" }\");");
       }
 
-      println("            { " + action.content);
+      String value = batchValue(action);
+      if (value != null) {
+        println(indent + "  { if (zzBatchCount < zzBatchMax) {");
+        println(indent + "      zzBatchTypes[zzBatchCount] = " + value + ";");
+        println(indent + "      zzBatchStarts[zzBatchCount] = yychar;");
+        println(indent + "      zzBatchEnds[zzBatchCount] = yychar + zzMarkedPos - zzStartRead;");
+        println(indent + "      if (++zzBatchCount < zzBatchMax) break;");
+        println(indent + "    }");
+        println(indent + "    " + action.content.trim());
+        println(indent + "  }");
+      }
+      else {
+        println(indent + "  { " + action.content);
+        println(indent + "  }");
+      }
+      println(indent + "case " + (i++) + ": break;");
+    }
+  }
+
+  /**
+   * Returns the token type that an action returns for %batch, if
+   * the action does nothing else than returning a constant (a number
+   * or a name like <code>sym.IDENT</code>).
+   *
+   * @return the returned constant, null if the action is not that simple
+   */
+  private String batchValue(Action action) {
+    if (!scanner.batch) return null;
+    Matcher m = BATCH_ACTION.matcher(action.content);
+    return m.matches() ? m.group(1) : null;
+  }
+
+  /**
+   * Emits yylexBatch for %batch. 
+   *
+   * yylexBatch calls the lexer method with the arrays of the caller
+   * in fields. Actions that only return a constant store their token
+   * there and continue scanning without returning, other actions
+   * return as usual and yylexBatch stores the value they return.
+   */
+  private void emitLexBatch() {
+    if (!scanner.batch) return;
+
+    println("  /**");
+    println("   * Scans up to <code>max</code> tokens in one call and stores the token");
+    println("   * types and their start and end positions (as in yychar) in the");
+    println("   * specified arrays.");
+    println("   *");
+    println("   * Actions that only return a constant are stored without returning");
+    println("   * from the lexer method. Actions that do not return a value are");
+    println("   * executed as in " + scanner.functionName + "() and are not stored.");
+    println("   * The end of input is not stored.");
+    println("   *");
+    println("   * @param types   the array for the token types");
+    println("   * @param starts  the array for the start positions of the tokens");
+    println("   * @param ends    the array for the end positions of the tokens");
+    println("   * @param max     the maximum number of tokens to scan");
+    println("   *");
+    println("   * @return the number of tokens stored, less than <code>max</code>");
+    println("   *         only at the end of input");
+    println("   *");
+    println("   * @exception   java.io.IOException  if any I/O-Error occurs");
+    println("   */");
+    print("  " + visibility + " int yylexBatch(int [] types, int [] starts, int [] ends, int max)");
+    emitLexFunctThrows();
+    println(" {");
+    println("    if (max > types.length || max > starts.length || max > ends.length)");
+    println("      throw new IllegalArgumentException(\"max is larger than the arrays\");");
+    println();
+    println("    zzBatchTypes = types;");
+    println("    zzBatchStarts = starts;");
+    println("    zzBatchEnds = ends;");
+    println("    zzBatchCount = 0;");
+    println("    zzBatchMax = max;");
+    println("    try {");
+    println("      while (zzBatchCount < max) {");
+    println("        int zzToken = " + scanner.functionName + "();");
+    println("        if (zzBatchCount == max || zzAtEOF) break;");
+    println("        types[zzBatchCount] = zzToken;");
+    println("        starts[zzBatchCount] = yychar;");
+    println("        ends[zzBatchCount] = yychar + zzMarkedPos - zzStartRead;");
+    println("        zzBatchCount++;");
+    println("      }");
+    println("      return zzBatchCount;");
+    println("    }");
+    println("    finally {");
+    println("      zzBatchMax = 0;");
+    println("      zzBatchTypes = zzBatchStarts = zzBatchEnds = null;");
+    println("    }");
+    println("  }");
+    println();
+  }
+
+  /**
+   * Splits the actions into groups for the action methods of
+   * %splitactions. Consecutive actions are put into one group as long
+   * as the group stays well below the JIT limit (the size estimate is
+   * only a rough guess).
+   *
+   * @return the groups, each a list of actions with their labels
+   */
+  private List<List<Map.Entry<Action, Integer>>> groupActions() {
+    List<List<Map.Entry<Action, Integer>>> groups = new ArrayList<List<Map.Entry<Action, Integer>>>();
+
+    List<Map.Entry<Action, Integer>> group = null;
+    int size = 0;
+
+    for (Map.Entry<Action, Integer> entry : actionTable.entrySet()) {
+      int actionSize = estimateActionSize(entry.getKey());
+      if (group == null || size + actionSize > HUGE_METHOD_LIMIT/2 - ACTION_METHOD_SIZE) {
+        group = new ArrayList<Map.Entry<Action, Integer>>();
+        groups.add(group);
+        size = 0;
+      }
+      group.add(entry);
+      size += actionSize;
+    }
+
+    return groups;
+  }
+
+  /**
+   * Emits the call of the action methods for %splitactions in the 
+   * lexer method. 
+   *
+   * An action method returns the value of the action if it returns
+   * one. Otherwise, it sets zzNoReturn and the lexer method continues
+   * scanning.
+   */
+  private void emitActionDispatch() {
+    actionGroups = groupActions();
+
+    println("        zzAction = zzAction < 0 ? zzAction : ZZ_ACTION[zzAction];");
+    print("        switch (zzAction <= 0 ? 0 : ");
+    int group = 1;
+    for (List<Map.Entry<Action, Integer>> actions : actionGroups) {
+      if (group < actionGroups.size()) {
+        int last = actions.get(actions.size() - 1).getValue();
+        print("zzAction <= " + last + " ? " + group + " : ");
+      }
+      else {
+        print(String.valueOf(group));
+      }
+      group++;
+    }
+    println(") {");
+
+    for (int i = 1; i <= actionGroups.size(); i++) {
+      println("          case " + i + ":");
+      println("            { " + valueType(lexFunctType()) + " zzValue = zzDoAction" + i + "(zzAction);");
+      println("              if (!zzNoReturn) return zzValue;");
+      println("              zzNoReturn = false;");
       println("            }");
-      println("          case " + (i++) + ": break;");
+      println("            break;");
+    }
+  }
+
+  /**
+   * Emits the action methods for %splitactions.
+   */
+  private void emitActionMethods() {
+    if (actionGroups == null) return;
+
+    int label = actionTable.size() + 1;
+    int group = 1;
+
+    for (List<Map.Entry<Action, Integer>> actions : actionGroups) {
+      boolean lookAhead = false;
+      boolean genLookAhead = false;
+      for (Map.Entry<Action, Integer> entry : actions) {
+        int kind = entry.getKey().lookAhead();
+        if (kind == Action.GENERAL_LOOK) genLookAhead = true;
+        if (kind != Action.NORMAL) lookAhead = true;
+      }
+
+      println("  /**");
+      println("   * Executes the actions " + actions.get(0).getValue() + " to " 
+              + actions.get(actions.size() - 1).getValue() + ".");
+      println("   * Sets zzNoReturn if the action does not return a value.");
+      println("   */");
+      print("  private " + lexFunctType() + " zzDoAction" + group + "(int zzAction)");
+      emitLexFunctThrows();
+      println(" {");
+
+      if (lookAhead)
+        println("    " + bufferType() + " zzBufferL = zzBuffer;");
+
+      if (genLookAhead) {
+        println("    int zzInput;");
+        println("    int [] zzTransL = ZZ_TRANS;");
+        if (scanner.comb)
+          println("    int [] zzCheckL = ZZ_CHECK;");
+        println("    int [] zzRowMapL = ZZ_ROWMAP;");
+        println("    int [] zzAttrL = ZZ_ATTRIBUTE;");
+        println("    char [] zzCMapL = ZZ_CMAP;");
+        if (isPagedCharMap()) {
+          println("    int [] zzCMapTopL = ZZ_CMAP_TOP;");
+          println("    char [] zzCMapAsciiL = ZZ_CMAP_ASCII;");
+        }
+      }
+
+      println();
+      println("    switch (zzAction) {");
+      emitActionCases(actions, label, "      ");
+      println("    }");
+      println("    zzNoReturn = true;");
+      println("    return " + defaultValue(valueType(lexFunctType())) + ";");
+      println("  }");
+      println();
+
+      label += actions.size();
+      group++;
     }
   }
 
@@ -1022,9 +2173,9 @@ public class JavaEmitter extends Emitter {
           if (scanner.debugOption) {
             print("              System.out.println(");
             if (scanner.lineCount)
-              print("\"line: \"+(yyline+1)+\" \"+");
+              print("\"line: \"+(" + lineExpr() + "+1)+\" \"+");
             if (scanner.columnCount)
-              print("\"col: \"+(yycolumn+1)+\" \"+");
+              print("\"col: \"+(" + columnExpr() + "+1)+\" \"+");
             println("\"match: <<EOF>>\");");
             print("              System.out.println(\"action [" + action.priority + "] { ");
             print(escapify(action.content));
@@ -1046,9 +2197,9 @@ public class JavaEmitter extends Emitter {
       if (scanner.debugOption) {
         print("                System.out.println(");
         if (scanner.lineCount)
-          print("\"line: \"+(yyline+1)+\" \"+");
+          print("\"line: \"+(" + lineExpr() + "+1)+\" \"+");
         if (scanner.columnCount)
-          print("\"col: \"+(yycolumn+1)+\" \"+");
+          print("\"col: \"+(" + columnExpr() + "+1)+\" \"+");
         println("\"match: <<EOF>>\");");
         print("                System.out.println(\"action [" + defaultAction.priority + "] { ");
         print(escapify(defaultAction.content));
@@ -1092,8 +2243,10 @@ public class JavaEmitter extends Emitter {
     if (scanner.functionName == null)
       scanner.functionName = "yylex";
 
-    reduceColumns();
+    reduceTable();
     findActionStates();
+    findSelfLoops();
+    setupDirect();
 
     emitHeader();
     emitUserCode();
@@ -1115,11 +2268,13 @@ public class JavaEmitter extends Emitter {
 
     emitActionTable();
 
-    reduceRows();
+    if (needsTransTable()) {
+      if (scanner.comb) packRows();
 
-    emitRowMapArray();
+      emitRowMapArray();
 
-    emitDynamicInit();
+      emitDynamicInit();
+    }
 
     skel.emitNext();
 
@@ -1129,12 +2284,41 @@ public class JavaEmitter extends Emitter {
 
     emitLookBuffer();
 
+    if (scanner.splitActions) {
+      println("  /** Set by the action methods if the action did not return a value */");
+      println("  private boolean zzNoReturn;");
+      println();
+    }
+
+    if (lazyLines) {
+      println("  /** the position in zzBuffer up to which yyline and yycolumn are counted */");
+      println("  private int zzLinePos;");
+      println();
+      println("  /** true iff the character before zzLinePos is a \\r that is not counted yet */");
+      println("  private boolean zzLineR;");
+      println();
+    }
+
+    if (scanner.batch) {
+      println("  /** The arrays and counters of the current yylexBatch call */");
+      println("  private int [] zzBatchTypes;");
+      println("  private int [] zzBatchStarts;");
+      println("  private int [] zzBatchEnds;");
+      println("  private int zzBatchCount;");
+      println("  private int zzBatchMax;");
+      println();
+    }
+
     emitClassCode();
 
     skel.emitNext();
 
     emitConstructorDecl();
 
+    emitBufferPool();
+
+    emitLazyLines();
+
     emitCharMapInitFunction(packedCharMapPairs);
 
     if (scanner.debugOption) {
@@ -1169,6 +2353,8 @@ public class JavaEmitter extends Emitter {
 
     emitLexFunctHeader();
 
+    emitSelfLoops();
+
     emitNextInput();
 
     emitGetRowMapNext();
@@ -1187,6 +2373,12 @@ public class JavaEmitter extends Emitter {
 
     skel.emitNext();
 
+    emitActionMethods();
+
+    checkLexFunctSize();
+
+    emitLexBatch();
+
     emitMain();
 
     skel.emitNext();
@@ -33,127 +33,27 @@ public class Main {
   final public static String version = "1.6.1";//"1.7.0-SNAPSHOT"; //$NON-NLS-1$
 
   /**
-   * Generates a scanner for the specified input file.
+   * Generates a scanner for the specified input file with the
+   * global settings in {@link Options}.
    *
    * @param inputFile  a file containing a lexical specification
    *                   to generate a scanner for.
+   *
+   * @see Generator#generate(File, GeneratorOptions)
    */
   public static void generate(File inputFile) {
 
     Out.resetCounters();
 
-    Timer totalTime = new Timer();
-    Timer time      = new Timer();
-      
-    LexScan scanner = null;
-    LexParse parser = null;
-    FileReader inputReader = null;
-    
-    totalTime.start();      
-
-    try {  
-      Out.println(ErrorMessages.READING, inputFile.toString());
-      inputReader = new FileReader(inputFile);
-      scanner = new LexScan(inputReader);
-      scanner.setFile(inputFile);
-      parser = new LexParse(scanner);
-    }
-    catch (FileNotFoundException e) {
-      Out.error(ErrorMessages.CANNOT_OPEN, inputFile.toString());
-      throw new GeneratorException();
-    }
-      
-    try {  
-      NFA nfa = (NFA) parser.parse().value;      
-
-      Out.checkErrors();
-
-      if (Options.dump) Out.dump(ErrorMessages.get(ErrorMessages.NFA_IS)+
-                                 Out.NL+nfa+Out.NL); 
-      
-      if (Options.dot) 
-        nfa.writeDot(Emitter.normalize("nfa.dot", null));       //$NON-NLS-1$
-
-      Out.println(ErrorMessages.NFA_STATES, nfa.numStates);
-      
-      time.start();
-      DFA dfa = nfa.getDFA();
-      time.stop();
-      Out.time(ErrorMessages.DFA_TOOK, time); 
-
-      dfa.checkActions(scanner, parser);
-
-      nfa = null;
-
-      if (Options.dump) Out.dump(ErrorMessages.get(ErrorMessages.DFA_IS)+
-                                 Out.NL+dfa+Out.NL);       
-
-      if (Options.dot) 
-        dfa.writeDot(Emitter.normalize("dfa-big.dot", null)); //$NON-NLS-1$
-
-      Out.checkErrors();
-
-      time.start();
-      dfa.minimize();
-      time.stop();
-
-      Out.time(ErrorMessages.MIN_TOOK, time); 
-            
-      if (Options.dump) 
-        Out.dump(ErrorMessages.get(ErrorMessages.MIN_DFA_IS)+
-                                   Out.NL+dfa); 
-
-      if (Options.dot) 
-        dfa.writeDot(Emitter.normalize("dfa-min.dot", null)); //$NON-NLS-1$
-
-      if(Options.emitScala){
-        InputStream stream; // use scala skeleton by default
-        try {
-//          stream = Main.class.getClassLoader().getResource("jflex/skeleton.scala").openStream();
-          stream = ClassLoader.getSystemResource("jflex/skeleton.scala").openStream();
-          Options.setSkeleton(new BufferedReader(new InputStreamReader(stream)));
-        } catch (Exception e){
-          e.printStackTrace();
-        }
-      }
-
-      time.start();
-      
-      Emitter e = Options.emitScala? new ScalaEmitter(inputFile, parser, dfa): new JavaEmitter(inputFile, parser, dfa);
-      e.emit();
-
-      time.stop();
-
-      Out.time(ErrorMessages.WRITE_TOOK, time); 
-      
-      totalTime.stop();
-      
-      Out.time(ErrorMessages.TOTAL_TIME, totalTime); 
-    }
-    catch (ScannerException e) {
-      Out.error(e.file, e.message, e.line, e.column);
-      throw new GeneratorException();
-    }
-    catch (MacroException e) {
-      Out.error(e.getMessage());
-      throw new GeneratorException();
-    }
-    catch (IOException e) {
-      Out.error(ErrorMessages.IO_ERROR, e.toString()); 
-      throw new GeneratorException();
-    }
-    catch (OutOfMemoryError e) {
-      Out.error(ErrorMessages.OUT_OF_MEMORY);
-      throw new GeneratorException();
-    }
-    catch (GeneratorException e) {
-      throw new GeneratorException();
+    GeneratorContext context = GeneratorContext.fromOptions();
+    try {
+      Generator.generate(inputFile, context);
     }
-    catch (Exception e) {
-      e.printStackTrace();
-      throw new GeneratorException();
+    finally {
+      GeneratorContext global = GeneratorContext.global();
+      global.warnings += context.warnings;
+      global.errors += context.errors;
     }
-
   }
 
   public static List<File> parseOptions(String argv[]) throws SilentExit {
@@ -249,6 +149,119 @@ public class Main {
         continue;
       }
 
+      if ( argv[i].equals("--comb") || argv[i].equals("-comb") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        Options.comb = true;
+        continue;
+      }
+
+      if ( argv[i].equals("--splitactions") || argv[i].equals("-splitactions") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        Options.split_actions = true;
+        continue;
+      }
+
+      if ( argv[i].equals("--dfathreads") || argv[i].equals("-dfathreads") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        int threads = 0;
+        if ( ++i < argv.length ) {
+          try {
+            threads = Integer.parseInt(argv[i]);
+          }
+          catch (NumberFormatException e) {
+            // reported below
+          }
+        }
+        if ( threads < 1 ) {
+          Out.error(ErrorMessages.NO_DFA_THREADS);
+          throw new GeneratorException();
+        }
+        Options.dfa_threads = threads;
+        continue;
+      }
+
+      if ( argv[i].equals("--dfamaxstates") || argv[i].equals("-dfamaxstates") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        int max = 0;
+        if ( ++i < argv.length ) {
+          try {
+            max = Integer.parseInt(argv[i]);
+          }
+          catch (NumberFormatException e) {
+            // reported below
+          }
+        }
+        if ( max < 1 ) {
+          Out.error(ErrorMessages.NO_DFA_LIMIT, "--dfamaxstates");
+          throw new GeneratorException();
+        }
+        Options.dfa_max_states = max;
+        continue;
+      }
+
+      if ( argv[i].equals("--dfamaxtime") || argv[i].equals("-dfamaxtime") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        int seconds = 0;
+        if ( ++i < argv.length ) {
+          try {
+            seconds = Integer.parseInt(argv[i]);
+          }
+          catch (NumberFormatException e) {
+            // reported below
+          }
+        }
+        if ( seconds < 1 ) {
+          Out.error(ErrorMessages.NO_DFA_LIMIT, "--dfamaxtime");
+          throw new GeneratorException();
+        }
+        Options.dfa_max_time = seconds;
+        continue;
+      }
+
+      if ( argv[i].equals("--dfamaxmemory") || argv[i].equals("-dfamaxmemory") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        int megabytes = 0;
+        if ( ++i < argv.length ) {
+          try {
+            megabytes = Integer.parseInt(argv[i]);
+          }
+          catch (NumberFormatException e) {
+            // reported below
+          }
+        }
+        if ( megabytes < 1 ) {
+          Out.error(ErrorMessages.NO_DFA_LIMIT, "--dfamaxmemory");
+          throw new GeneratorException();
+        }
+        Options.dfa_max_memory = megabytes;
+        continue;
+      }
+
+      if ( argv[i].equals("--codegen") || argv[i].equals("-codegen") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        String method = ++i < argv.length ? argv[i] : "";
+        if ( method.equals("direct") ) //$NON-NLS-1$
+          Options.direct = true;
+        else if ( method.equals("table") ) //$NON-NLS-1$
+          Options.direct = false;
+        else {
+          Out.error(ErrorMessages.NO_CODEGEN);
+          throw new GeneratorException();
+        }
+        continue;
+      }
+
+      if ( argv[i].equals("--directmax") || argv[i].equals("-directmax") ) { //$NON-NLS-1$ //$NON-NLS-2$
+        int max = 0;
+        if ( ++i < argv.length ) {
+          try {
+            max = Integer.parseInt(argv[i]);
+          }
+          catch (NumberFormatException e) {
+            // reported below
+          }
+        }
+        if ( max < 1 ) {
+          Out.error(ErrorMessages.NO_DIRECT_MAX);
+          throw new GeneratorException();
+        }
+        Options.direct_max_states = max;
+        continue;
+      }
+
       if ( argv[i].equals("--nobak") || argv[i].equals("-nobak") ) { //$NON-NLS-1$ //$NON-NLS-2$
         Options.no_backup = true;
         continue;
@@ -378,12 +391,20 @@ public class Main {
     Out.println("-d <directory>    write generated file to <directory>");
     Out.println("--skel <file>     use external skeleton <file>");
     Out.println("--pack            set default code generation method (default)");
+    Out.println("--comb            row displacement pack the transition table");
+    Out.println("--splitactions    emit actions in separate methods to keep the lexer method small");
+    Out.println("--codegen <m>     emit DFA transitions as tables (m = table, default) or code (m = direct)");
+    Out.println("--directmax <n>   use tables for DFAs with more than <n> states in direct mode (default 256)");
     Out.println("--jlex            strict JLex compatibility");
     Out.println("--legacydot       dot (.) metachar matches [^\\n] instead of");
     Out.println("                  [^\\n\\r\\u000B\\u000C\\u0085\\u2028\\u2029]");
     Out.println("--inputstreamctor    include a scanner constructor taking InputStream (default)");
     Out.println("--noinputstreamctor  don't include a scanner constructor taking InputStream");
     Out.println("--nomin           skip minimization step");
+    Out.println("--dfathreads <n>  construct the DFA with <n> threads (default 1)");
+    Out.println("--dfamaxstates <n>  stop if the DFA gets more than <n> states (default no limit)");
+    Out.println("--dfamaxtime <s>    stop if DFA construction takes more than <s> seconds (default no limit)");
+    Out.println("--dfamaxmemory <m>  stop if the DFA states take more than about <m> MB (default no limit)");
     Out.println("--nobak           don't create backup files");
     Out.println("--dump            display transition tables"); 
     Out.println("--dot             write graphviz .dot files for the generated automata (alpha)");
@@ -9,6 +9,8 @@
 package jflex;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
 
 
@@ -22,9 +24,18 @@ import java.io.*;
  */
 final public class NFA {
 
-  /** table[current_state][next_char] is the set of states that can be reached
-   * from current_state with an input next_char */
-  StateSet [][] table;
+  /** edgeInput[state][0..numEdges[state]-1] are the input characters for 
+   * which there are transitions from state, in ascending order (one entry
+   * per target, so the same input can occur several times) */
+  int [][] edgeInput;
+
+  /** edgeTarget[state][k] is the state that can be reached from state 
+   * with input edgeInput[state][k] (-1 if the transition has been removed) */
+  int [][] edgeTarget;
+
+  /** numEdges[state] is the number of used entries in edgeInput[state]
+   * and edgeTarget[state] */
+  int [] numEdges;
 
   /** epsilon[current_state] is the set of states that can be reached
    * from current_state via epsilon edges */
@@ -37,6 +48,10 @@ final public class NFA {
    * current_state (null, if there is no action for the state) */
   Action [] action;
 
+  /** rule[state]: 1 + the number of the rule the state was created for,
+   * 0 for entry states (used to find the culprit when the DFA gets too big) */
+  int [] rule;
+
   /** the number of states in this NFA */
   int numStates;
 
@@ -56,9 +71,35 @@ final public class NFA {
   LexScan scanner;
   RegExps regExps;
 
+  /** during getDFA(): maps the states reached by an input (before the
+   * epsilon closure) to their epsilon closure */
+  private ConcurrentMap<StateSet, StateSet> closureCache;
+
+  /** hits and misses of closureCache during getDFA() */
+  private AtomicInteger closureHits;
+  private AtomicInteger closureMisses;
+
+  /** the options of the generator run this NFA belongs to */
+  private final GeneratorOptions options = GeneratorContext.options();
+
+  /** the shared keyword tries of rules that are string literals, 
+   * by lexical states and BOL, see addKeywordRule() */
+  private final Map<String, TrieNode> ruleTries = new HashMap<String, TrieNode>();
+
+  /** string literals merged into keyword tries, and the NFA states 
+   * they take with and without the tries */
+  private int keywordLiterals;
+  private int keywordStates;
+  private int keywordStatesUnshared;
+
+  /** during getDFA(): running time and estimated memory of the DFA
+   * states so far, checked against the limits in options */
+  private Timer dfaTime;
+  private long dfaMemory;
+
   // will be reused by several methods (avoids excessive object creation)
-  private static StateSetEnumerator states = new StateSetEnumerator();
-  private static StateSet     tempStateSet = new StateSet();
+  private final StateSetEnumerator states = new StateSetEnumerator();
+  private final StateSet     tempStateSet = new StateSet();
   
   public NFA(int numInput, int estSize) {
     this.numInput = numInput;
@@ -66,8 +107,11 @@ final public class NFA {
     numStates = 0;
     epsilon = new StateSet [estSize];
     action = new Action [estSize];
+    rule = new int [estSize];
     isFinal = new boolean [estSize];
-    table = new StateSet [estSize][numInput];
+    edgeInput = new int [estSize][];
+    edgeTarget = new int [estSize][];
+    numEdges = new int [estSize];
   }
 
   /** 
@@ -124,7 +168,27 @@ final public class NFA {
 
     if (Options.DEBUG)
       Out.debug("Adding nfa for regexp "+regExpNum+" :"+Out.NL+regExps.getRegExp(regExpNum));
-    
+
+    int before = numStates;
+
+    RegExp regExp = regExps.getRegExp(regExpNum);
+    List<RegExp1> literals = new ArrayList<RegExp1>();
+    if ( regExps.getLookAhead(regExpNum) == null && !regExp.isCharClass(macros) 
+         && collectLiterals(regExp, literals) ) 
+      addKeywordRule(regExpNum, literals);
+    else
+      insertRule(regExpNum);
+
+    for (int i = before; i < numStates; i++)
+      rule[i] = regExpNum+1;
+  }
+
+  /**
+   * Adds the NFA of a rule that is not a keyword rule.
+   *
+   * @param regExpNum   the number of the regexp to add.
+   */
+  private void insertRule(int regExpNum) {
     IntPair nfa = insertNFA( regExps.getRegExp(regExpNum) );
     
     List<Integer> lexStates = regExps.getStates(regExpNum);
@@ -186,6 +250,71 @@ final public class NFA {
     }
   }
 
+  /**
+   * Adds a rule whose expression is a string literal or an alternation
+   * of string literals to the keyword trie of its lexical states. 
+   * Keyword rules with the same lexical states share the states of 
+   * their common prefixes. The state at the end of a literal is final,
+   * unless an earlier rule already ends there (the same literal twice).
+   *
+   * @param regExpNum  the number of the rule
+   * @param literals   the literals of its expression
+   */
+  private void addKeywordRule(int regExpNum, List<RegExp1> literals) {
+    List<Integer> lexStates = regExps.getStates(regExpNum);
+    
+    if ( lexStates.isEmpty() )
+      lexStates = scanner.states.getInclusiveStates();
+
+    boolean bol = regExps.isBOL(regExpNum);
+    String key = lexStates + (bol ? "^" : "");
+    int before = numStates;
+
+    TrieNode root = ruleTries.get(key);
+    if (root == null) {
+      root = new TrieNode(newState());
+      ruleTries.put(key, root);
+      for (Integer stateNum : lexStates) {
+        if ( !bol )
+          addEpsilonTransition(2*stateNum, root.state);
+        addEpsilonTransition(2*stateNum+1, root.state);
+      }
+    }
+
+    Action a = regExps.getAction(regExpNum);
+    int end = -1;
+    for (RegExp1 literal : literals) {
+      int state = insertKeyword(root, literal);
+      if ( !isFinal[state] ) {
+        isFinal[state] = true;
+        action[state] = a;
+      }
+      else if ( action[state] != a ) {
+        if (end < 0) {
+          end = newState();
+          isFinal[end] = true;
+          action[end] = a;
+        }
+        addEpsilonTransition(state, end);
+      }
+    }
+
+    keywordLiterals += literals.size();
+    keywordStates += numStates - before;
+    keywordStatesUnshared += literalStates(regExps.getRegExp(regExpNum));
+  }
+
+  /**
+   * Reports how many NFA states the keyword tries saved, if any.
+   */
+  public void reportKeywordTries() {
+    if (keywordStates < keywordStatesUnshared)
+      Out.println(ErrorMessages.get(ErrorMessages.KEYWORD_TRIES, 
+                                    String.valueOf(keywordLiterals),
+                                    String.valueOf(keywordStates),
+                                    String.valueOf(keywordStatesUnshared)));
+  }
+
   /**
    * Insert NFAs for the (finitely many) fixed length lookahead choices.
    * 
@@ -244,18 +373,27 @@ final public class NFA {
     boolean [] newFinal   = new boolean [newStatesLength];
     boolean [] newIsPush  = new boolean [newStatesLength];
     Action  [] newAction  = new Action  [newStatesLength];
-    StateSet [] [] newTable = new StateSet [newStatesLength] [numInput];
+    int [] newRule = new int [newStatesLength];
+    int [] [] newEdgeInput = new int [newStatesLength] [];
+    int [] [] newEdgeTarget = new int [newStatesLength] [];
+    int [] newNumEdges = new int [newStatesLength];
     StateSet [] newEpsilon  = new StateSet [newStatesLength];
 
     System.arraycopy(isFinal,0,newFinal,0,numStates);
     System.arraycopy(action,0,newAction,0,numStates);
+    System.arraycopy(rule,0,newRule,0,numStates);
     System.arraycopy(epsilon,0,newEpsilon,0,numStates);
-    System.arraycopy(table,0,newTable,0,numStates);
+    System.arraycopy(edgeInput,0,newEdgeInput,0,numStates);
+    System.arraycopy(edgeTarget,0,newEdgeTarget,0,numStates);
+    System.arraycopy(numEdges,0,newNumEdges,0,numStates);
 
     isFinal     = newFinal;
     action      = newAction;
+    rule        = newRule;
     epsilon     = newEpsilon;
-    table       = newTable;
+    edgeInput   = newEdgeInput;
+    edgeTarget  = newEdgeTarget;
+    numEdges    = newNumEdges;
   }
   
   public void addTransition(int start, int input, int dest) {
@@ -267,10 +405,86 @@ final public class NFA {
 
     if (maxS > numStates) numStates = maxS;
 
-    if ( table[start][input] != null ) 
-      table[start][input].addState(dest); 
+    int k = edgeIndex(start, input);
+    int n = numEdges[start];
+
+    // insert the new edge after the other edges for input, keeping 
+    // inputs sorted
+    if ( k < 0 ) 
+      k = -k-1;
     else 
-      table[start][input] = new StateSet(estSize,dest);
+      for (; k < n && edgeInput[start][k] == input; k++)
+        if ( edgeTarget[start][k] == dest ) return;
+
+    if ( edgeInput[start] == null ) {
+      edgeInput[start] = new int [2];
+      edgeTarget[start] = new int [2];
+    }
+    else if ( n == edgeInput[start].length ) {
+      int [] newInput = new int [2*n];
+      int [] newTarget = new int [2*n];
+      System.arraycopy(edgeInput[start],0,newInput,0,n);
+      System.arraycopy(edgeTarget[start],0,newTarget,0,n);
+      edgeInput[start] = newInput;
+      edgeTarget[start] = newTarget;
+    }
+
+    System.arraycopy(edgeInput[start],k,edgeInput[start],k+1,n-k);
+    System.arraycopy(edgeTarget[start],k,edgeTarget[start],k+1,n-k);
+    edgeInput[start][k] = input;
+    edgeTarget[start][k] = dest;
+    numEdges[start] = n+1;
+  }
+
+  /**
+   * Returns the position of the first edge for input in edgeInput[state],
+   * or <code>-(insertion point)-1</code> if there is no such edge.
+   */
+  private int edgeIndex(int state, int input) {
+    int [] inputs = edgeInput[state];
+    int lo = 0;
+    int hi = numEdges[state];
+
+    while (lo < hi) {
+      int mid = (lo+hi) >>> 1;
+      if (inputs[mid] < input) 
+        lo = mid+1;
+      else
+        hi = mid;
+    }
+
+    return lo < numEdges[state] && inputs[lo] == input ? lo : -lo-1;
+  }
+
+  /**
+   * Returns the set of states that can be reached from state
+   * with input, or <code>null</code> if there is no such transition.
+   * The set is built on demand, the NFA itself only stores the edges.
+   */
+  private StateSet transitions(int state, int input) {
+    int k = edgeIndex(state, input);
+    if ( k < 0 ) return null;
+
+    StateSet result = null;
+    for (; k < numEdges[state] && edgeInput[state][k] == input; k++) {
+      if ( edgeTarget[state][k] < 0 ) continue;
+      if ( result == null ) 
+        result = new StateSet(numStates, edgeTarget[state][k]);
+      else
+        result.addState(edgeTarget[state][k]);
+    }
+    return result;
+  }
+
+  /**
+   * Removes all transitions from state with input.
+   */
+  private void removeTransitions(int state, int input) {
+    int k = edgeIndex(state, input);
+    if ( k < 0 ) return;
+
+    for (; k < numEdges[state] && edgeInput[state][k] == input; k++) 
+      edgeTarget[state][k] = -1;
   }
 
   public void addEpsilonTransition(int start, int dest) {
@@ -424,7 +638,7 @@ final public class NFA {
 
     states.reset(start);
     while ( states.hasMoreElements() ) 
-      tempStateSet.add( table[states.nextElement()][input] );
+      tempStateSet.add( transitions(states.nextElement(), input) );
 
     StateSet result = new StateSet(tempStateSet);
     
@@ -477,77 +691,308 @@ final public class NFA {
 
     if (Options.DEBUG)
       Out.debug("DFA start states are :"+Out.NL+dfaStates+Out.NL+Out.NL+"ordered :"+Out.NL+dfaList);
-     
-    currentDFAState = 0;
+
+    closureCache = new ConcurrentHashMap<StateSet, StateSet>(numStates);
+    closureHits = new AtomicInteger();
+    closureMisses = new AtomicInteger();
+
+    dfaTime = new Timer();
+    dfaMemory = 0;
+
+    if (options.dfa_threads > 1) {
+      addDFAStatesParallel(dfa, dfaStates, dfaList);
+    }
+    else {
+      currentDFAState = 0;
       
-    StateSet tempStateSet  = NFA.tempStateSet;    
-    StateSetEnumerator states = NFA.states;
+      StateSetEnumerator states = this.states;
 
-    // will be reused
-    newState = new StateSet(numStates);
+      while ( currentDFAState < dfaList.size() ) {
+        currentState = dfaList.get(currentDFAState);
 
-    while ( currentDFAState <= numDFAStates ) {
+        StateSet [] next = DFAEdges(currentState, states);
+        addDFAEdges(dfa, dfaStates, dfaList, currentDFAState, next);
+      
+        currentDFAState++;     
+      }
+    }
+    
+    if (options.verbose) Out.println("");
 
-      currentState = dfaList.get(currentDFAState);
+    Out.println(ErrorMessages.get(ErrorMessages.CLOSURE_CACHE,
+                                  String.valueOf(closureHits.get()),
+                                  String.valueOf(closureMisses.get())));
 
-      for (int input = 0; input < numInput; input++) {
+    closureCache = null;
 
-	      // newState = DFAEdge(currentState, input);
+    return dfa;
+  }
 
-        // inlining DFAEdge for performance:
 
-        // Out.debug("Calculating DFAEdge for state set "+currentState+" and input '"+input+"'");
+  /**
+   * Calculates the DFAEdge of a set of states for every input character. 
+   * 
+   * Apart from the (concurrent) closure cache, uses only the scratch 
+   * objects passed as parameters, so that several threads can call this 
+   * method at the same time once the NFA (including its epsilon closures) 
+   * is complete.
+   *
+   * @param start  the set of states to start from
+   * @param states scratch enumerator
+   *
+   * @return the state sets reached from <code>start</code> for each input, 
+   *         <code>null</code> for inputs without transition
+   */
+  private StateSet [] DFAEdges(StateSet start, StateSetEnumerator states) {
+    StateSet [] result = new StateSet [numInput];
 
-        tempStateSet.clear();        
-        states.reset(currentState);
-        while ( states.hasMoreElements() ) 
-          tempStateSet.add( table[states.nextElement()][input] );
-        
-        newState.copy(tempStateSet);
-        
-        states.reset(tempStateSet);
+    // collect the transitions of all states in start
+    states.reset(start);
+    while ( states.hasMoreElements() ) {
+      int state = states.nextElement();
+      int [] inputs = edgeInput[state];
+      int [] targets = edgeTarget[state];
+
+      for (int k = 0; k < numEdges[state]; k++) {
+        if ( targets[k] < 0 ) continue;
+
+        StateSet newState = result[inputs[k]];
+        if ( newState == null ) {
+          newState = new StateSet(numStates);
+          result[inputs[k]] = newState;
+        }
+        newState.addState(targets[k]);
+      }
+    }
+
+    // add the epsilon closures of the states reached. The same sets of
+    // states are reached from many DFA states, so their closures are cached.
+    for (int input = 0; input < numInput; input++) {
+      StateSet reached = result[input];
+      if ( reached == null ) continue;
+
+      StateSet newState = closureCache.get(reached);
+      if ( newState != null ) {
+        closureHits.incrementAndGet();
+      }
+      else {
+        closureMisses.incrementAndGet();
+
+        newState = new StateSet(reached);
+        states.reset(reached);
         while ( states.hasMoreElements() ) 
           newState.add( epsilon[states.nextElement()] );
-    
-        // Out.debug("DFAEdge is : "+newState);
 
+        StateSet cached = closureCache.putIfAbsent(reached, newState);
+        if ( cached != null ) newState = cached;
+      }
 
-	      if ( newState.containsElements() ) {
+      result[input] = newState;
+    }
 
-          // Out.debug("DFAEdge for input "+(int)input+" and state set "+currentState+" is "+newState);
-       
-	        // Out.debug("Looking for state set "+newState);
-	        Integer nextDFAState = dfaStates.get(newState);
+    return result;
+  }
 
-	        if ( nextDFAState != null ) {
-	          // Out.debug("FOUND!");
-	          dfa.addTransition(currentDFAState, input, nextDFAState);
-	        }
-	        else {
-            if (Options.progress) Out.print(".");
-	          // Out.debug("NOT FOUND!");
-	          // Out.debug("Table was "+dfaStates);
-            numDFAStates++;
+  /**
+   * Adds the transitions of a DFA state to the DFA. State sets that
+   * are not yet in the DFA become new DFA states, numbered in the order
+   * they are encountered.
+   *
+   * @param dfa        the DFA under construction
+   * @param dfaStates  maps the state sets of the DFA states to their numbers
+   * @param dfaList    the state sets of the DFA states in order of their numbers
+   * @param dfaState   the DFA state the transitions start from
+   * @param next       the DFAEdge for each input, see DFAEdges()
+   */
+  private void addDFAEdges(DFA dfa, Map<StateSet,Integer> dfaStates, List<StateSet> dfaList,
+                           int dfaState, StateSet [] next) {
+    for (int input = 0; input < numInput; input++) {
+      StateSet newState = next[input];
+      if (newState == null) continue;
 
-            // make a new copy of newState to store in dfaStates
-            StateSet storeState = new StateSet(newState);
+      Integer nextDFAState = dfaStates.get(newState);
 
-	          dfaStates.put(storeState, numDFAStates);
-	          dfaList.add(storeState);
-	    
-	          dfa.addTransition(currentDFAState, input, numDFAStates);
-	          dfa.setFinal( numDFAStates, containsFinal(storeState) );
-	          dfa.setAction( numDFAStates, getAction(storeState) );
-	        }
-	      }
+      if ( nextDFAState != null ) {
+        dfa.addTransition(dfaState, input, nextDFAState);
+      }
+      else {
+        if (options.progress) Out.print(".");
+
+        int numDFAStates = dfaList.size();
+        dfaStates.put(newState, numDFAStates);
+        dfaList.add(newState);
+
+        dfa.addTransition(dfaState, input, numDFAStates);
+        dfa.setFinal( numDFAStates, containsFinal(newState) );
+        dfa.setAction( numDFAStates, getAction(newState) );
+
+        // the state set, its row in the transition table, and roughly
+        // 64 bytes for the objects and map entry around them
+        dfaMemory += 8L*newState.bits.length + 4L*numInput + 64;
       }
-      
-      currentDFAState++;     
     }
-    
-    if (Options.verbose) Out.println("");
 
-    return dfa;
+    checkDFALimits(dfaList);
+  }
+
+  /**
+   * Stops the subset construction if the DFA gets larger or takes longer
+   * than the limits in options allow (0 is no limit). Reports the rules
+   * that most likely cause the state explosion.
+   *
+   * @param dfaList  the state sets of the DFA states so far
+   * @throws GeneratorException  if a limit is exceeded
+   */
+  private void checkDFALimits(List<StateSet> dfaList) {
+    if ( options.dfa_max_states > 0 && dfaList.size() > options.dfa_max_states ) {
+      if (options.verbose) Out.println("");
+      Out.error(ErrorMessages.DFA_STATE_LIMIT, String.valueOf(options.dfa_max_states));
+    }
+    else if ( options.dfa_max_time > 0 && dfaTime.diff() > 1000L*options.dfa_max_time ) {
+      if (options.verbose) Out.println("");
+      Out.error(ErrorMessages.DFA_TIME_LIMIT, String.valueOf(options.dfa_max_time));
+    }
+    else if ( options.dfa_max_memory > 0 && dfaMemory > (1L << 20)*options.dfa_max_memory ) {
+      if (options.verbose) Out.println("");
+      Out.error(ErrorMessages.DFA_MEMORY_LIMIT, String.valueOf(options.dfa_max_memory));
+    }
+    else
+      return;
+
+    reportDFAStateRules(dfaList);
+    throw new GeneratorException();
+  }
+
+  /**
+   * Reports the rules whose NFA states occur in the most DFA state sets.
+   *
+   * A rule that makes the DFA blow up is part of almost every DFA state,
+   * but so are rules like a catch-all identifier rule. The culprit is 
+   * the rule that occurs with the most different subsets of its NFA 
+   * states, so rules are ordered by that number first (counted with
+   * hash codes of the subsets, which is close enough for a report).
+   *
+   * @param dfaList  the state sets of the DFA states
+   */
+  private void reportDFAStateRules(List<StateSet> dfaList) {
+    int numRules = regExps.getNum();
+    final int [] count = new int [numRules];
+    final int [] subsets = new int [numRules];
+    int [] counted = new int [numRules];
+    long [] hash = new long [numRules];
+    List<Set<Long>> seen = new ArrayList<Set<Long>>(numRules);
+    for (int r = 0; r < numRules; r++) seen.add(new HashSet<Long>());
+
+    StateSetEnumerator states = new StateSetEnumerator();
+    List<Integer> inState = new ArrayList<Integer>();
+    for (int i = 0; i < dfaList.size(); i++) {
+      inState.clear();
+      states.reset(dfaList.get(i));
+      while ( states.hasMoreElements() ) {
+        int state = states.nextElement();
+        int r = rule[state]-1;
+        if ( r < 0 ) continue;
+        if ( counted[r] != i+1 ) {
+          counted[r] = i+1;
+          count[r]++;
+          hash[r] = 1;
+          inState.add(r);
+        }
+        hash[r] = 31*hash[r] + state;
+      }
+      for (Integer r : inState) 
+        seen.get(r).add(hash[r]);
+    }
+
+    for (int r = 0; r < numRules; r++) subsets[r] = seen.get(r).size();
+    seen = null;
+
+    Integer [] rules = new Integer [numRules];
+    for (int r = 0; r < numRules; r++) rules[r] = r;
+    Arrays.sort(rules, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        if ( subsets[a] != subsets[b] ) return subsets[b] - subsets[a];
+        return count[b] - count[a];
+      }
+    });
+
+    StringBuilder report = new StringBuilder();
+    for (int i = 0; i < Math.min(5, numRules) && count[rules[i]] > 0; i++) {
+      int r = rules[i];
+      report.append(Out.NL).append(ErrorMessages.get(ErrorMessages.DFA_LIMIT_RULE,
+                                                     String.valueOf(regExps.getLine(r)+1),
+                                                     String.valueOf(count[r]),
+                                                     String.valueOf(subsets[r])));
+    }
+
+    Out.error(ErrorMessages.DFA_LIMIT_RULES, report.toString());
+  }
+
+  /**
+   * Completes the subset construction of getDFA() with 
+   * options.dfa_threads threads.
+   *
+   * The DFA edges of a block of unprocessed DFA states are calculated
+   * concurrently. The results are then added to the DFA in the same 
+   * order as in the serial construction, so that DFA states get the 
+   * same numbers and the generated scanner does not change.
+   *
+   * @param dfa        the DFA with its entry states already set up
+   * @param dfaStates  maps the state sets of the DFA states to their numbers
+   * @param dfaList    the state sets of the DFA states in order of their numbers
+   */
+  private void addDFAStatesParallel(DFA dfa, Map<StateSet,Integer> dfaStates, 
+                                    final List<StateSet> dfaList) {
+    int numThreads = options.dfa_threads;
+    int blockSize = 64 * numThreads;
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+    try {
+      int currentDFAState = 0;
+
+      while ( currentDFAState < dfaList.size() ) {
+        final int start = currentDFAState;
+        final int end   = Math.min(dfaList.size(), start + blockSize);
+        final StateSet [][] edges = new StateSet [end-start][];
+
+        List<Future<?>> results = new ArrayList<Future<?>>(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+          final int thread = t;
+          final int threads = numThreads;
+          results.add(executor.submit(new Runnable() {
+            public void run() {
+              StateSetEnumerator states = new StateSetEnumerator();
+              for (int i = start + thread; i < end; i += threads) 
+                edges[i-start] = DFAEdges(dfaList.get(i), states);
+            }
+          }));
+        }
+
+        for (Future<?> result : results) {
+          try {
+            result.get();
+          }
+          catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) throw (Error) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+          }
+          catch (InterruptedException e) {
+            throw new GeneratorException();
+          }
+        }
+
+        for (int i = start; i < end; i++) 
+          addDFAEdges(dfa, dfaStates, dfaList, i, edges[i-start]);
+
+        currentDFAState = end;
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
   }
 
 
@@ -571,13 +1016,13 @@ final public class NFA {
       }
       result.append(" "+i+Out.NL);
       
-      for (int input = 0; input < numInput; input++) {
-	      if ( table[i][input] != null && table[i][input].containsElements() )
-          result.append("  with ").append((int) input).append(" in ")
-                .append(table[i][input]).append(Out.NL);	
-          
-          
-        }
+      for (int k = 0; k < numEdges[i]; k++) {
+        if ( k > 0 && edgeInput[i][k] == edgeInput[i][k-1] ) continue;
+        StateSet targets = transitions(i, edgeInput[i][k]);
+	      if ( targets != null )
+          result.append("  with ").append(edgeInput[i][k]).append(" in ")
+                .append(targets).append(Out.NL);	
+      }
 
       if ( epsilon[i] != null && epsilon[i].containsElements() )
         result.append("  with epsilon in ").append(epsilon[i]).append(Out.NL);
@@ -613,14 +1058,16 @@ final public class NFA {
     }
 
     for (int i=0; i < numStates; i++) {
-      for (int input = 0; input < numInput; input++) {
-	      if ( table[i][input] != null ) {
-          StateSetEnumerator states = table[i][input].states();
+      for (int k = 0; k < numEdges[i]; k++) {
+        if ( k > 0 && edgeInput[i][k] == edgeInput[i][k-1] ) continue;
+        StateSet targets = transitions(i, edgeInput[i][k]);
+	      if ( targets != null ) {
+          StateSetEnumerator states = targets.states();
         
           while (states.hasMoreElements()) {
             int s = states.nextElement();
             result.append(i).append(" -> ").append(s);
-            result.append(" [label=\"").append(classes.toString(input)).append("\"]").append(Out.NL);
+            result.append(" [label=\"").append(classes.toString(edgeInput[i][k])).append("\"]").append(Out.NL);
           }
         }
       }
@@ -681,6 +1128,151 @@ final public class NFA {
   }
   
 
+  /** 
+   * A node of a keyword trie. The children are keyed by the class codes
+   * of the input that leads to them. 
+   */
+  private static final class TrieNode {
+    final int state;
+    final Map<String, TrieNode> children = new HashMap<String, TrieNode>();
+
+    TrieNode(int state) {
+      this.state = state;
+    }
+  }
+
+  /**
+   * Returns a new state at the end of the NFA.
+   */
+  private int newState() {
+    ensureCapacity(numStates+1);
+    return numStates++;
+  }
+
+  /**
+   * Collects the string literals and single characters of an 
+   * alternation.
+   *
+   * @param regExp    the expression
+   * @param literals  the list to add the literals to (RegExp1 of type
+   *                  STRING, STRING_I, CHAR, or CHAR_I)
+   * @return true if the expression only consists of literals
+   */
+  private boolean collectLiterals(RegExp regExp, List<RegExp1> literals) {
+    switch (regExp.type) {
+    case sym.BAR:
+      RegExp2 r = (RegExp2) regExp;
+      return collectLiterals(r.r1, literals) && collectLiterals(r.r2, literals);
+
+    case sym.MACROUSE:
+      return collectLiterals(macros.getDefinition((String) ((RegExp1) regExp).content), literals);
+
+    case sym.STRING:
+    case sym.STRING_I:
+    case sym.CHAR:
+    case sym.CHAR_I:
+      literals.add((RegExp1) regExp);
+      return true;
+
+    default: 
+      return false;
+    }
+  }
+
+  /**
+   * The number of NFA states insertNFA() uses for an alternation of 
+   * literals.
+   */
+  private int literalStates(RegExp regExp) {
+    if (regExp.isCharClass(macros)) return 2;
+
+    switch (regExp.type) {
+    case sym.BAR:
+      RegExp2 r = (RegExp2) regExp;
+      return literalStates(r.r1) + literalStates(r.r2) + 2;
+
+    case sym.MACROUSE:
+      return literalStates(macros.getDefinition((String) ((RegExp1) regExp).content));
+
+    default: 
+      String str = (String) ((RegExp1) regExp).content;
+      return str.codePointCount(0, str.length()) + 1;
+    }
+  }
+
+  /**
+   * Adds a literal to a keyword trie, reusing the states of the longest
+   * prefix already in the trie.
+   *
+   * @param root     the root of the trie
+   * @param literal  a STRING, STRING_I, CHAR, or CHAR_I expression
+   * @return the state at the end of the literal
+   */
+  private int insertKeyword(TrieNode root, RegExp1 literal) {
+    boolean caseless = literal.type == sym.STRING_I || literal.type == sym.CHAR_I;
+    String str = literal.content instanceof String 
+      ? (String) literal.content 
+      : new String(Character.toChars((Integer) literal.content));
+
+    TrieNode node = root;
+    for (int pos = 0; pos < str.length(); ) {
+      int ch = str.codePointAt(pos);
+      pos += Character.charCount(ch);
+
+      SortedSet<Integer> codes = new TreeSet<Integer>();
+      if (caseless) {
+        IntCharSet set = new IntCharSet(ch);
+        IntCharSet caselessSet = set.getCaseless(scanner.getUnicodeProperties());
+        for (Interval interval : caselessSet.getIntervals()) 
+          for (int elem = interval.start ; elem <= interval.end ; ++elem) 
+            codes.add(classes.getClassCode(elem));
+      }
+      else {
+        codes.add(classes.getClassCode(ch));
+      }
+
+      String key = codes.toString();
+      TrieNode child = node.children.get(key);
+      if (child == null) {
+        child = new TrieNode(newState());
+        node.children.put(key, child);
+        for (int code : codes)
+          addTransition(node.state, code, child.state);
+      }
+      node = child;
+    }
+
+    return node.state;
+  }
+
+  /**
+   * Constructs an NFA for an alternation of literals as keyword trie:
+   * literals with a common prefix share its states.
+   *
+   * @param regExp    the alternation
+   * @param literals  the literals of the alternation 
+   * @return a pair of integers denoting the index of start
+   *         and end state of the NFA.
+   */
+  private IntPair insertKeywordsNFA(RegExp regExp, List<RegExp1> literals) {
+    int before = numStates;
+    TrieNode root = new TrieNode(newState());
+
+    List<Integer> ends = new ArrayList<Integer>();
+    for (RegExp1 literal : literals) 
+      ends.add(insertKeyword(root, literal));
+
+    int end = newState();
+    for (int state : ends)
+      addEpsilonTransition(state, end);
+
+    keywordLiterals += literals.size();
+    keywordStates += numStates - before;
+    keywordStatesUnshared += literalStates(regExp);
+
+    return new IntPair(root.state, end);
+  }
+
   private void insertClassNFA(List<Interval> intervals, int start, int end) {
     // empty char class is ok:
     if (intervals == null) return;
@@ -756,7 +1348,7 @@ final public class NFA {
             addTransition(dfaStart+currentDFAState, input, dfaStart+nextDFAState);
 	        }
 	        else {
-            if (Options.dump) Out.print("+");
+            if (options.dump) Out.print("+");
 	          // Out.debug("NOT FOUND!");
 	          // Out.debug("Table was "+dfaStates);
             numDFAStates++;
@@ -801,7 +1393,7 @@ final public class NFA {
       // all inputs not present (formerly leading to an implicit error)
       // now lead to an explicit (final) state accepting everything.
       for (int i = 0; i < numInput; i++)
-        if (table[currentDFAState][i] == null)
+        if (transitions(currentDFAState, i) == null)
           addTransition(currentDFAState, i, error);
     }
 
@@ -837,8 +1429,11 @@ final public class NFA {
 
     // Out.debug("is final :"+live[start]);
 
-    for (int i = 0; i < numInput; i++) {
-      StateSet nextState = closure(table[start][i]);
+    for (int k = 0; k < numEdges[start]; k++) {
+      int input = edgeInput[start][k];
+      if ( k > 0 && input == edgeInput[start][k-1] ) continue;
+
+      StateSet nextState = closure(transitions(start, input));
       StateSetEnumerator states = nextState.states();
       while (states.hasMoreElements()) {
         int next = states.nextElement();
@@ -849,7 +1444,7 @@ final public class NFA {
           if (live[next]) 
             live[start] = true;
           else
-            table[start][i] = null;        
+            removeTransitions(start, input);
         }
       }
     }
@@ -961,6 +1556,10 @@ final public class NFA {
     switch (regExp.type) {
       
     case sym.BAR:
+
+      List<RegExp1> literals = new ArrayList<RegExp1>();
+      if (collectLiterals(regExp, literals))
+        return insertKeywordsNFA(regExp, literals);
       
       r = (RegExp2) regExp;
       
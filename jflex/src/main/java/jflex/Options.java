@@ -51,6 +51,22 @@ public class Options {
   public static boolean legacy_dot;
   /** If true, the generated scanner will include a constructor taking an InputStream. */
   public static boolean emitInputStreamCtor;
+  /** If true, the transition table will be row displacement packed */
+  public static boolean comb;
+  /** If true, user actions are emitted in separate methods instead of inside yylex */
+  public static boolean split_actions;
+  /** number of threads for DFA construction, 1 for serial construction */
+  public static int dfa_threads;
+  /** the largest number of DFA states to construct, 0 for no limit */
+  public static int dfa_max_states;
+  /** the longest time in seconds to spend on DFA construction, 0 for no limit */
+  public static int dfa_max_time;
+  /** the largest estimated memory in MB for the DFA states, 0 for no limit */
+  public static int dfa_max_memory;
+  /** If true, the DFA transitions are emitted as code instead of tables */
+  public static boolean direct;
+  /** the largest number of DFA states for which transitions are emitted as code */
+  public static int direct_max_states;
 
   /** If true, the generated scanner will be in Scala */
   public static boolean emitScala;
@@ -81,6 +97,17 @@ public class Options {
 	 * @param d  the directory to write output files to
 	 */
   public static void setDir(File d) {
+    checkDir(d);
+    directory = d;
+  }
+
+  /**
+   * Checks that d can be used as output directory, creates it
+   * if necessary.
+   *
+   * @param d  the directory to write output files to
+   */
+  static void checkDir(File d) {
     if ( d.isFile() ) {
       Out.error("Error: \""+d+"\" is not a directory.");
       throw new GeneratorException();
@@ -90,8 +117,6 @@ public class Options {
       Out.error("Error: couldn't create directory \""+d+"\"");
       throw new GeneratorException();
     }
-  
-    directory = d;
   }
 
   /**
@@ -111,6 +136,14 @@ public class Options {
     legacy_dot = false;
     // TODO: in the JFlex version after 1.6, the emitInputStreamCtor option will cease to exist.
     emitInputStreamCtor = false;
+    comb = false;
+    split_actions = false;
+    dfa_threads = 1;
+    dfa_max_states = 0;
+    dfa_max_time = 0;
+    dfa_max_memory = 0;
+    direct = false;
+    direct_max_states = 256;
 
     emitScala = false;
     Skeleton.readDefault();
@@ -36,14 +36,14 @@ public final class Out {
   /** platform dependent newline sequence */
   public static final String NL = System.getProperty("line.separator");
   
-  /** count total warnings */
-  private static int warnings;
-
-  /** count total errors */
-  private static int errors;
-
-  /** output device */
-  private static StdOutWriter out = new StdOutWriter();
+  /**
+   * @return the output device of the current generator run
+   *
+   * @see GeneratorContext
+   */
+  private static StdOutWriter out() {
+    return GeneratorContext.get().out;
+  }
 
 
   /**
@@ -52,7 +52,7 @@ public final class Out {
    * @param text  the message TextArea of the JFlex GUI
    */
   public static void setGUIMode(TextArea text) {
-    out.setGUIMode(text);
+    GeneratorContext.global().out.setGUIMode(text);
   }
   
   /**
@@ -61,8 +61,9 @@ public final class Out {
    * @param stream  the new output stream
    */
   public static void setOutputStream(OutputStream stream) {
-    out = new StdOutWriter(stream);
+    StdOutWriter out = new StdOutWriter(stream);
     out.setGUIMode(null);
+    GeneratorContext.global().out = out;
   }
 
   /**
@@ -72,9 +73,9 @@ public final class Out {
    * @param time     elapsed time
    */
   public static void time(ErrorMessages message, Timer time) {
-    if (Options.time) {
+    if (GeneratorContext.options().time) {
       String msg = ErrorMessages.get(message, time.toString());
-      out.println(msg);
+      out().println(msg);
     } 
   }
   
@@ -84,8 +85,8 @@ public final class Out {
    * @param message  the message to be printed
    */
   public static void time(String message) {
-    if (Options.time) {
-      out.println(message);
+    if (GeneratorContext.options().time) {
+      out().println(message);
     } 
   }
 
@@ -95,8 +96,8 @@ public final class Out {
    * @param message  the message to be printed
    */
   public static void println(String message) {
-    if (Options.verbose) 
-      out.println(message);
+    if (GeneratorContext.options().verbose) 
+      out().println(message);
   }
 
   /**
@@ -106,8 +107,8 @@ public final class Out {
    * @param data     data to be inserted into the message
    */
   public static void println(ErrorMessages message, String data) {
-    if (Options.verbose) {      
-      out.println(ErrorMessages.get(message,data));
+    if (GeneratorContext.options().verbose) {      
+      out().println(ErrorMessages.get(message,data));
     }
   }
 
@@ -118,8 +119,8 @@ public final class Out {
    * @param data     data to be inserted into the message
    */
   public static void println(ErrorMessages message, int data) {
-    if (Options.verbose) {      
-      out.println(ErrorMessages.get(message,data));
+    if (GeneratorContext.options().verbose) {      
+      out().println(ErrorMessages.get(message,data));
     }
   }
 
@@ -129,7 +130,7 @@ public final class Out {
    * @param message  the message to be printed
    */
   public static void print(String message) {
-    if (Options.verbose) out.print(message);
+    if (GeneratorContext.options().verbose) out().print(message);
   }
 
   /**
@@ -154,7 +155,7 @@ public final class Out {
    * @message the message to be printed 
    */
   public static void dump(String message) {
-    if (Options.dump) out.println(message);
+    if (GeneratorContext.options().dump) out().println(message);
   }
 
   
@@ -165,7 +166,7 @@ public final class Out {
    * @message  the message to be printed
    */
   private static void err(String message) {
-    out.println(message);
+    out().println(message);
   }
   
   
@@ -173,7 +174,7 @@ public final class Out {
    * throws a GeneratorException if there are any errors recorded
    */
   public static void checkErrors() {
-    if (errors > 0) throw new GeneratorException();
+    if (GeneratorContext.get().errors > 0) throw new GeneratorException();
   }
   
 
@@ -181,6 +182,10 @@ public final class Out {
    * print error and warning statistics
    */
   public static void statistics() {    
+    GeneratorContext context = GeneratorContext.get();
+    int errors = context.errors;
+    int warnings = context.warnings;
+
     StringBuilder line = new StringBuilder(errors+" error");
     if (errors != 1) line.append("s");
 
@@ -196,8 +201,9 @@ public final class Out {
    * reset error and warning counters
    */
   public static void resetCounters() {
-    errors = 0;
-    warnings = 0;
+    GeneratorContext context = GeneratorContext.get();
+    context.errors = 0;
+    context.warnings = 0;
   }
 
   
@@ -207,7 +213,7 @@ public final class Out {
    * @param message   the warning message
    */  
   public static void warning(String message) {
-    warnings++;
+    GeneratorContext.get().warnings++;
 
     err(NL+"Warning : "+message);
   }
@@ -234,7 +240,7 @@ public final class Out {
    * @see ErrorMessages
    */
   public static void warning(ErrorMessages message, int line) {
-    warnings++;
+    GeneratorContext.get().warnings++;
 
     String msg = NL+"Warning";
     if (line > 0) msg = msg+" in line "+(line+1);
@@ -264,7 +270,7 @@ public final class Out {
       err(msg);
     }
 
-    warnings++;
+    GeneratorContext.get().warnings++;
 
     if (line >= 0) {
       if (column >= 0)
@@ -281,7 +287,7 @@ public final class Out {
    * @param message  the message to print
    */
   public static void error(String message) {
-    errors++;
+    GeneratorContext.get().errors++;
     err(NL+message);
   }
 
@@ -294,7 +300,7 @@ public final class Out {
    * @see ErrorMessages   
    */ 
   public static void error(ErrorMessages message) {
-    errors++;
+    GeneratorContext.get().errors++;
     err(NL+"Error: "+ErrorMessages.get(message) );
   }
 
@@ -308,7 +314,7 @@ public final class Out {
    * @see ErrorMessages   
    */ 
   public static void error(ErrorMessages message, String data) {
-    errors++;    
+    GeneratorContext.get().errors++;    
     err(NL+"Error: "+ ErrorMessages.get(message,data));
   }
 
@@ -321,7 +327,7 @@ public final class Out {
    * @param file     the file it occurred for
    */
   public static void error(ErrorMessages message, File file) {
-    errors++;
+    GeneratorContext.get().errors++;
     err(NL+"Error: "+ErrorMessages.get(message)+" ("+file+")");
   }
 
@@ -347,7 +353,7 @@ public final class Out {
       err(msg);
     }
 
-    errors++;
+    GeneratorContext.get().errors++;
 
     if (line >= 0) {
       if (column >= 0)
@@ -453,7 +459,7 @@ public final class Out {
     err("");
     printSystemInfo();
     err("Exception:");
-    e.printStackTrace(out);
+    e.printStackTrace(out());
     err("");
     err("Please also include a specification (as small as possible)");
     err("that triggers this error. You may also want to check at");
@@ -0,0 +1,155 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * JFlex 1.7.0-SNAPSHOT                                                    *
+ * Copyright (C) 1998-2015  Gerwin Klein <lsf@jflex.de>                    *
+ * All rights reserved.                                                    *
+ *                                                                         *
+ * License: BSD                                                            *
+ *                                                                         *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package jflex;
+
+
+/**
+ * Refinable partition of the integers 0..n-1.
+ *
+ * Used in DFA minimization, once for the states and once for the
+ * transitions of the DFA. Elements are marked one by one, split()
+ * then separates the marked from the unmarked elements of each set
+ * in time proportional to the number of marked elements. The smaller
+ * of the two parts becomes a new set with the next free set number,
+ * so that sets created by a split can be processed in order of
+ * their numbers like a worklist.
+ *
+ * Follows A. Valmari, P. Lehtinen: "Efficient minimization of DFAs
+ * with partial transition functions" (STACS 2008).
+ *
+ * @version JFlex 1.7.0-SNAPSHOT
+ */
+final class Partition {
+
+  /** the number of sets */
+  int numSets;
+
+  /** the elements, the elements of each set are stored contiguously */
+  int [] elements;
+
+  /** location[e] is the index of element e in elements */
+  int [] location;
+
+  /** set[e] is the set element e belongs to */
+  int [] set;
+
+  /** the elements of set s are elements[first[s]..past[s]-1] */
+  int [] first;
+  int [] past;
+
+  /**
+   * the number of marked elements of each set. Marked elements
+   * are stored at the start of their set.
+   */
+  private int [] marked;
+
+  /** the sets with marked elements */
+  private int [] touched;
+  private int numTouched;
+
+
+  /**
+   * Creates a partition of 0..classOf.length-1 where elements with
+   * the same class are in the same set. Classes without elements do
+   * not get a set.
+   *
+   * @param classOf     the class of each element
+   * @param numClasses  the number of classes, all classes are in 0..numClasses-1
+   */
+  Partition(int [] classOf, int numClasses) {
+    int n = classOf.length;
+
+    elements = new int[n];
+    location = new int[n];
+    set      = new int[n];
+    first    = new int[n];
+    past     = new int[n];
+    marked   = new int[n];
+    touched  = new int[n];
+
+    // counting sort of the elements by class
+    int [] start = new int[numClasses+1];
+    for (int e = 0; e < n; e++) start[classOf[e]+1]++;
+    for (int c = 0; c < numClasses; c++) start[c+1]+= start[c];
+
+    int [] setOf = new int[numClasses];
+    for (int c = 0; c < numClasses; c++) {
+      if (start[c] < start[c+1]) {
+        setOf[c] = numSets;
+        first[numSets] = start[c];
+        past[numSets] = start[c+1];
+        numSets++;
+      }
+    }
+
+    for (int e = 0; e < n; e++) {
+      int c = classOf[e];
+      int i = start[c]++;
+      elements[i] = e;
+      location[e] = i;
+      set[e] = setOf[c];
+    }
+  }
+
+
+  /**
+   * Marks element e (at most once between two calls of split()).
+   */
+  void mark(int e) {
+    int s = set[e];
+    int i = location[e];
+    int j = first[s]+marked[s];
+
+    // move e to the end of the marked part of its set
+    elements[i] = elements[j];
+    location[elements[i]] = i;
+    elements[j] = e;
+    location[e] = j;
+
+    if (marked[s]++ == 0) touched[numTouched++] = s;
+  }
+
+
+  /**
+   * Splits each set with marked elements into its marked and unmarked
+   * elements and unmarks all elements.
+   */
+  void split() {
+    while (numTouched > 0) {
+      int s = touched[--numTouched];
+      int j = first[s]+marked[s];
+
+      if (j == past[s]) {
+        // all elements marked, nothing to split
+        marked[s] = 0;
+        continue;
+      }
+
+      // the smaller part becomes the new set
+      if (marked[s] <= past[s]-j) {
+        first[numSets] = first[s];
+        past[numSets] = j;
+        first[s] = j;
+      }
+      else {
+        past[numSets] = past[s];
+        first[numSets] = j;
+        past[s] = j;
+      }
+
+      for (int i = first[numSets]; i < past[numSets]; i++)
+        set[elements[i]] = numSets;
+
+      marked[s] = 0;
+      marked[numSets] = 0;
+      numSets++;
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package jflex;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -192,13 +195,63 @@ public class ScalaEmitter extends Emitter {
     println("            zzScanError(ZZ_NO_MATCH); null");
   }
 
+  /**
+   * Emits the tight loops for the states that loop on themselves (see 
+   * findSelfLoops()) at the start of each transition of the lexer method.
+   */
+  private void emitSelfLoops() {
+    Map<String,List<Integer>> tests = new LinkedHashMap<String,List<Integer>>();
+    for (int s = 0; s < dfa.numStates; s++) {
+      String test = selfLoopTest[s];
+      if (test == null) continue;
+      List<Integer> states = tests.get(test);
+      if (states == null) {
+        states = new ArrayList<Integer>();
+        tests.put(test, states);
+      }
+      states.add(s);
+    }
+
+    if (tests.isEmpty()) return;
+
+    println("          if ( (zzAttributes & " + SELF_LOOP + ") == " + SELF_LOOP + " ) {");
+    println("            // skip over the input the state loops on");
+    println("            var zzPos = zzCurrentPosL");
+    println("            var zzLoop = true");
+    println("            zzState match {");
+    for (Map.Entry<String,List<Integer>> entry : tests.entrySet()) {
+      print("              case ");
+      boolean first = true;
+      for (int s : entry.getValue()) {
+        if (!first) print(" | ");
+        print(String.valueOf(s));
+        first = false;
+      }
+      println(" =>");
+      println("                while (zzLoop && zzPos < zzEndReadL) {");
+      println("                  val zzC = zzBufferL(zzPos)");
+      println("                  if (" + entry.getKey() + ") zzPos += 1");
+      println("                  else zzLoop = false");
+      println("                }");
+    }
+    println("              case _ =>");
+    println("            }");
+    println("            if (zzPos > zzCurrentPosL) {");
+    println("              zzCurrentPosL = zzPos");
+    println("              if ( (zzAttributes & " + FINAL + ") == " + FINAL + " ) zzMarkedPosL = zzPos");
+    println("            }");
+    println("          }");
+    println();
+  }
+
   // TODO these breaks will not work
   protected void emitNextInput() {
     println("          if (zzCurrentPosL < zzEndReadL) {");
-    println("            zzInput = codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL)");
-    println("            zzCurrentPosL += Character.charCount(zzInput)");
+    emitReadInput("            ");
     println("          }");
-    println("          else if (zzAtEOF) {");
+    println("          else if (" + atEOF() + ") {");
+    if (scanner.inMemory) // end of in-memory input, see zzRefill() for readers
+      println("            zzCurrentPos  = zzCurrentPosL");
     println("            zzInput = YYEOF");
     println("            break");
     println("          }");
@@ -217,12 +270,29 @@ public class ScalaEmitter extends Emitter {
     println("              break");
     println("            }");
     println("            else {");
-    println("              zzInput = codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL)");
-    println("              zzCurrentPosL += Character.charCount(zzInput)");
+    emitReadInput("              ");
     println("            }");
     println("          }");
   }
 
+  /**
+   * Emits the code that reads the code point at zzCurrentPosL into zzInput.
+   * Characters below the surrogate range are code points on their own 
+   * and are taken as they are, only surrogates are decoded.
+   *
+   * @param indent  the indentation of the emitted code
+   */
+  private void emitReadInput(String indent) {
+    println(indent + "zzInput = zzBufferL(zzCurrentPosL)");
+    println(indent + "if (zzInput < Character.MIN_SURROGATE) {");
+    println(indent + "  zzCurrentPosL += 1");
+    println(indent + "}");
+    println(indent + "else {");
+    println(indent + "  zzInput = codePointAt(zzBufferL, zzCurrentPosL, zzEndReadL)");
+    println(indent + "  zzCurrentPosL += Character.charCount(zzInput)");
+    println(indent + "}");
+  }
+
   protected void emitUserCode() {
     if (scanner.userCode.length() > 0)
       println(scanner.userCode.toString());
@@ -318,6 +388,11 @@ public class ScalaEmitter extends Emitter {
   }
 
   protected void emitDynamicInit() {
+    if (scanner.comb) {
+      emitCombTables();
+      return;
+    }
+
     int count = 0;
     int value = dfa.table[0][0];
 
@@ -354,12 +429,80 @@ public class ScalaEmitter extends Emitter {
   }
 
 
-  protected void emitCharMapInitFunction(int packedCharMapPairs) {
+  /**
+   * Emits the row displacement packed transition table, 
+   * see {@link Emitter#packRows()}.
+   */
+  private void emitCombTables() {
+    println("  /** ");
+    println("   * The transition table of the DFA, rows overlaid at their");
+    println("   * offset in ZZ_ROWMAP");
+    println("   */");
 
-    CharClasses cl = parser.getCharClasses();
+    ScalaCountEmitter e = new ScalaCountEmitter("Trans");
+    e.setValTranslation(+1); // allow vals in [-1, 0xFFFE]
+    e.emitInit();
+
+    int count = 0;
+    int value = combNext[0];
+
+    for (int i = 0; i < combNext.length; i++) {
+      if (combNext[i] == value) {
+        count++;
+      } else {
+        e.emit(count, value);
 
-    if (cl.getMaxCharCode() < 256) return;
+        count = 1;
+        value = combNext[i];
+      }
+    }
+
+    e.emit(count, value);
+    e.emitUnpack();
+    e.emitEnd();
+
+    println(e.toString());
+
+    println("  /** ");
+    println("   * The row offset each entry of ZZ_TRANS belongs to (0 for none)");
+    println("   */");
+
+    ScalaHiLowEmitter c = new ScalaHiLowEmitter("Check");
+    c.emitInit();
+    for (int i = 0; i < combCheck.length; i++) {
+      c.emit(combCheck[i]);
+    }
+    c.emitUnpack();
+    c.emitEnd();
+
+    println(c.toString());
+  }
+
+
+  protected void emitCharMapInitFunction(int packedCharMapPairs) {
+
+    if (!isPagedCharMap()) return;
 
+    println("");
+    println("  /** ");
+    println("   * Unpacks the compressed top-level character map.");
+    println("   *");
+    println("   * @param packed   the packed top-level character map");
+    println("   * @return         the offset of each block in ZZ_CMAP");
+    println("   */");
+    println("  def zzUnpackCMapTop(packed: Array[Char]): Array[Int] = {");
+    println("    val map = new Array[Int](" + cmapTop.length + ")");
+    println("    var i = 0  /* index in packed string  */");
+    println("    var j = 0  /* index in unpacked array */");
+    println("    while (i < packed.length - 1) {");
+    println("      var count = packed(i).toInt; i += 1");
+    println("      val value = packed(i).toInt << " + CMAP_BLOCK_BITS + "; i += 1");
+    println("      while(count > 0){");
+    println("        map(j) = value; j += 1; count -= 1");
+    println("      }");
+    println("    }");
+    println("    map");
+    println("  }");
     println("");
     println("  /** ");
     println("   * Unpacks the compressed character translation table.");
@@ -368,7 +511,7 @@ public class ScalaEmitter extends Emitter {
     println("   * @return         the unpacked character translation table");
     println("   */");
     println("  def zzUnpackCMap(packed: Array[Char]): Array[Char] = {");
-    println("    val map = new Array[Char](0x" + Integer.toHexString(cl.getMaxCharCode() + 1) + ")");
+    println("    val map = new Array[Char](0x" + Integer.toHexString(cmapBlocks.length) + ")");
     println("    var i = 0  /* index in packed string  */");
     println("    var j = 0  /* index in unpacked array */");
     println("    while (i < " + 2 * packedCharMapPairs + ") {");
@@ -421,47 +564,97 @@ public class ScalaEmitter extends Emitter {
    * Returns the number of elements in the packed char map
    * array, or zero if the char map array will be not be packed.
    * <p/>
-   * This will be more than intervals.length if the count
-   * for any of the values is more than 0xFFFF, since
-   * the number of char map array entries per value is
+   * The packed char map holds the distinct blocks of the
+   * two-level char map, see {@link Emitter#reduceCharMap()}.
+   * Its number of elements will be more than the number of
+   * runs if the count for any of the values is more than 0xFFFF, 
+   * since the number of char map array entries per value is
    * ceil(count / 0xFFFF)
    */
   protected int emitCharMapArray() {
-    CharClasses cl = parser.getCharClasses();
-
-    if (cl.getMaxCharCode() < 256) {
+    if (!isPagedCharMap()) {
       emitCharMapArrayUnPacked();
       return 0; // the char map array will not be packed
     }
 
-    // ignores cl.getMaxCharCode(), emits all intervals instead
-
-    intervals = cl.getIntervals();
+    reduceCharMap();
 
     println("");
     println("  /** ");
-    println("   * Translates characters to character classes");
+    println("   * Top-level character map: the offset in ZZ_CMAP of the block");
+    println("   * for each " + CMAP_BLOCK_SIZE + " consecutive characters");
+    println("   */");
+    println("  final val ZZ_CMAP_TOP_PACKED: Array[Char] = ");
+    emitPackedCharMap(cmapTop);
+    println();
+
+    println("  final val ZZ_CMAP_TOP: Array[Int] = zzUnpackCMapTop(ZZ_CMAP_TOP_PACKED)");
+    println();
+
+    println("  /** ");
+    println("   * Second-level character map: translates characters to character");
+    println("   * classes, one block of " + CMAP_BLOCK_SIZE + " characters after the other");
     println("   */");
     println("  final val ZZ_CMAP_PACKED: Array[Char] = ");
-//    int n = 0;  // numbers of entries in current line
+    int numPairs = emitPackedCharMap(cmapBlocks);
+    println();
+
+    println("  /** ");
+    println("   * Translates characters to character classes");
+    println("   */");
+    println("  final val ZZ_CMAP: Array[Char] = zzUnpackCMap(ZZ_CMAP_PACKED)");
+    println();
+
+    println("  /** ");
+    println("   * Translates ASCII characters to character classes (the start of");
+    println("   * the first block of ZZ_CMAP)");
+    println("   */");
+    println("  final val ZZ_CMAP_ASCII: Array[Char] = Array[Char](");
+    print("    ");
+    for (int c = 0; c < CMAP_ASCII; c++) {
+      print(cmapBlocks[c], 2);
+      if (c < CMAP_ASCII - 1) {
+        print(", ");
+        if (c % 16 == 15) {
+          println();
+          print("    ");
+        }
+      }
+    }
+    println();
+    println("  )");
+    println();
+    return numPairs;
+  }
+
+  /**
+   * Emits values as run length encoded char array, terminated by 'E'.
+   *
+   * @param values  the values to emit, each in [0, 0xFFFF]
+   * @return the number of count/value pairs emitted
+   */
+  private int emitPackedCharMap(int [] values) {
     print("    Array(");
 
     int i = 0, numPairs = 0;
     int count, value;
-    while (i < intervals.length) {
-      count = intervals[i].end - intervals[i].start + 1;
-      value = colMap[intervals[i].charClass];
+    while (i < values.length) {
+      value = values[i];
+      count = 0;
+      while (i < values.length && values[i] == value) {
+        count++;
+        i++;
+      }
 
       // count could be >= 0x10000
       while (count > 0xFFFF) {
-	print("'");
+        print("'");
         printUC(0xFFFF);
-	print("', '");
+        print("', '");
         printUC(value);
+        print("', ");
         count -= 0xFFFF;
-	print("', ");
         numPairs++;
-//        n++;
       }
       numPairs++;
 
@@ -470,26 +663,9 @@ public class ScalaEmitter extends Emitter {
       print("', '");
       printUC(value);
       print("', ");
-
-//      if (i < intervals.length - 1) {
-//        if (++n >= 10) {
-//          println("\"+");
-//          print("    \"");
-//          n = 0;
-//        }
-//      }
-
-      i++;
     }
 
     println("'E');");
-    println();
-
-    println("  /** ");
-    println("   * Translates characters to character classes");
-    println("   */");
-    println("  final val ZZ_CMAP: Array[Char] = zzUnpackCMap(ZZ_CMAP_PACKED)");
-    println();
     return numPairs;
   }
 
@@ -502,7 +678,7 @@ public class ScalaEmitter extends Emitter {
     ScalaHiLowEmitter e = new ScalaHiLowEmitter("RowMap");
     e.emitInit();
     for (int i = 0; i < dfa.numStates; i++) {
-      e.emit(rowMap[i] * numCols);
+      e.emit(scanner.comb ? rowBase[rowMap[i]] : rowMap[i] * numCols);
     }
     e.emitUnpack();
     e.emitEnd();
@@ -575,6 +751,100 @@ public class ScalaEmitter extends Emitter {
     }
   }
 
+  /**
+   * Emits the constructors and reset methods for in-memory input (%inmemory).
+   */
+  private void emitInMemoryInput() {
+    println("  /**");
+    println("   * Creates a new scanner that scans the characters ");
+    println("   * <code>buf(offset)</code> to <code>buf(offset+length-1)</code>");
+    println("   * in place. The array must not be changed while it is scanned.");
+    println("   *");
+    println("   * @param   buf     the input");
+    println("   * @param   offset  the index of the first character to scan");
+    println("   * @param   length  the number of characters to scan");
+    println("   */");
+    println("  def this(buf: Array[Char], offset: Int, length: Int) = {");
+    println("    this(null: java.io.Reader)");
+    println("    zzSetInput(buf, offset, length)");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Creates a new scanner that scans the characters of a CharSequence.");
+    println("   * A java.nio.CharBuffer with an accessible array is scanned in place,");
+    println("   * other CharSequences are copied once.");
+    println("   *");
+    println("   * @param   in  the input");
+    println("   */");
+    println("  def this(in: CharSequence) = {");
+    println("    this(null: java.io.Reader)");
+    println("    zzSetInput(in)");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Resets the scanner to scan the characters <code>buf(offset)</code>");
+    println("   * to <code>buf(offset+length-1)</code> in place.");
+    println("   *");
+    println("   * All internal variables are reset, the lexical state is set to ");
+    println("   * <tt>ZZ_INITIAL</tt>. The scanner keeps no buffer of its own.");
+    println("   *");
+    println("   * @param   buf     the input");
+    println("   * @param   offset  the index of the first character to scan");
+    println("   * @param   length  the number of characters to scan");
+    println("   */");
+    println("  def yyreset(buf: Array[Char], offset: Int, length: Int): Unit = {");
+    emitResetState();
+    println("    zzSetInput(buf, offset, length)");
+    println("  }");
+    println();
+
+    println("  /**");
+    println("   * Resets the scanner to scan the characters of a CharSequence, ");
+    println("   * see yyreset(Array[Char], Int, Int).");
+    println("   *");
+    println("   * @param   in  the input");
+    println("   */");
+    println("  def yyreset(in: CharSequence): Unit = {");
+    emitResetState();
+    println("    zzSetInput(in)");
+    println("  }");
+    println();
+
+    println("  private def zzSetInput(buf: Array[Char], offset: Int, length: Int): Unit = {");
+    println("    zzReader = null");
+    println("    zzBuffer = buf");
+    println("    zzStartRead = offset");
+    println("    zzCurrentPos = offset");
+    println("    zzMarkedPos = offset");
+    println("    zzEndRead = offset + length");
+    println("    zzFinalHighSurrogate = 0");
+    println("  }");
+    println();
+
+    println("  private def zzSetInput(in: CharSequence): Unit = in match {");
+    println("    case buf: java.nio.CharBuffer if buf.hasArray =>");
+    println("      zzSetInput(buf.array, buf.arrayOffset + buf.position, buf.remaining)");
+    println("    case _ =>");
+    println("      zzSetInput(in.toString.toCharArray, 0, in.length)");
+    println("  }");
+    println();
+  }
+
+  /**
+   * Emits the statements of yyreset(Reader) that reset the scanner state.
+   */
+  private void emitResetState() {
+    println("    zzAtBOL  = true");
+    println("    zzAtEOF  = false");
+    println("    zzEOFDone = false");
+    println("    yyline = 0");
+    println("    yychar = 0");
+    println("    yycolumn = 0");
+    println("    zzLexicalState = YYINITIAL");
+  }
+
   protected void emitConstructorDecl(boolean printCtorArgs) {
     println("  /**");
     println("   * Creates a new scanner");
@@ -703,9 +973,17 @@ public class ScalaEmitter extends Emitter {
 
     skel.emitNext();
 
-    println("    val zzTransL: Array[Int] = ZZ_TRANS");
-    println("    val zzRowMapL: Array[Int] = ZZ_ROWMAP");
+    if (needsTransTable()) {
+      println("    val zzTransL: Array[Int] = ZZ_TRANS");
+      if (scanner.comb)
+        println("    val zzCheckL: Array[Int] = ZZ_CHECK");
+      println("    val zzRowMapL: Array[Int] = ZZ_ROWMAP");
+    }
     println("    val zzAttrL: Array[Int] = ZZ_ATTRIBUTE");
+    if (isPagedCharMap()) {
+      println("    val zzCMapTopL: Array[Int] = ZZ_CMAP_TOP");
+      println("    val zzCMapAsciiL: Array[Char] = ZZ_CMAP_ASCII");
+    }
 
     println();
     print("    var ret: ");
@@ -772,7 +1050,7 @@ public class ScalaEmitter extends Emitter {
         println("        val zzPeek: Boolean");
         println("        if (zzMarkedPosL < zzEndReadL)");
         println("          zzPeek = zzBufferL(zzMarkedPosL) == '\\n'");
-        println("        else if (zzAtEOF)");
+        println("        else if (" + atEOF() + ")");
         println("          zzPeek = false");
         println("        else {");
         println("          val eof = zzRefill()");
@@ -800,7 +1078,7 @@ public class ScalaEmitter extends Emitter {
       println("        case '\\r' =>");
       println("          if (zzMarkedPosL < zzEndReadL)");
       println("            zzAtBOL = zzBufferL(zzMarkedPosL) != '\\n'");
-      println("          else if (zzAtEOF)");
+      println("          else if (" + atEOF() + ")");
       println("            zzAtBOL = false");
       println("          else {");
       println("            val eof = zzRefill()");
@@ -841,13 +1119,84 @@ public class ScalaEmitter extends Emitter {
   }
 
 
-  protected void emitGetRowMapNext() {
-    println("          val zzNext = zzTransL(zzRowMapL(zzState) + zzCMapL(zzInput))");
-    println("          if (zzNext == " + DFA.NO_TARGET + ") break");
-    println("          zzState = zzNext");
+  /**
+   * Returns the expression that translates a character to its
+   * character class, using the char map locals of the lexer function.
+   *
+   * @param input  the variable holding the character
+   */
+  protected String charMapLookup(String input) {
+    if (!isPagedCharMap()) return "zzCMapL(" + input + ")";
+
+    return "(if (" + input + " < 0x" + Integer.toHexString(CMAP_ASCII) + ") zzCMapAsciiL(" + input + ") else "
+        + "zzCMapL(zzCMapTopL(" + input + " >> " + CMAP_BLOCK_BITS + ") | ("
+        + input + " & 0x" + Integer.toHexString(CMAP_BLOCK_SIZE - 1) + ")))";
+  }
+
+  /**
+   * Returns the statement that moves the state in variable state
+   * along the transition for the character in variable input.
+   */
+  private String transition(String state, String input) {
+    if (!scanner.comb)
+      return state + " = zzTransL( zzRowMapL(" + state + ") + " + charMapLookup(input) + " )";
+
+    return "{ val zzBase = zzRowMapL(" + state + "); val zzIdx = zzBase + " + charMapLookup(input) + ";"
+        + " " + state + " = if (zzCheckL(zzIdx) == zzBase) zzTransL(zzIdx) else " + DFA.NO_TARGET + " }";
+  }
+
+  /**
+   * Emits the transitions of the DFA as nested matches on the current
+   * state and the character class of the input (%codegen direct).
+   * Also sets zzAttributes to the attributes of the new state.
+   */
+  private void emitDirectTransitions() {
+    println("          val zzClass = " + charMapLookup("zzInput"));
+    println("          zzState match {");
+    for (int s = 0; s < dfa.numStates; s++) {
+      if (!isTransition[s]) continue;
+      println("            case " + s + " =>");
+      println("              zzClass match {");
+      Map<Integer,List<Integer>> targets = directTransitions(s);
+      for (Map.Entry<Integer,List<Integer>> entry : targets.entrySet()) {
+        List<Integer> cols = entry.getValue();
+        print("                case ");
+        for (int i = 0; i < cols.size(); i++) {
+          if (i > 0 && i % 8 == 0) {
+            println(" |");
+            print("                     ");
+          }
+          else if (i > 0) print(" | ");
+          print(cols.get(i));
+        }
+        int target = entry.getKey();
+        println(" => zzState = " + target + "; zzAttributes = " + attribute(target));
+      }
+      println("                case _ => break");
+      println("              }");
+    }
+    println("            case _ => break");
+    println("          }");
     println();
+  }
 
-    println("          zzAttributes = zzAttrL(zzState)");
+  protected void emitGetRowMapNext() {
+    if (direct) {
+      emitDirectTransitions();
+    } else if (scanner.comb) {
+      println("          val zzBase = zzRowMapL(zzState)");
+      println("          val zzIdx = zzBase + " + charMapLookup("zzInput"));
+      println("          val zzNext = if (zzCheckL(zzIdx) == zzBase) zzTransL(zzIdx) else " + DFA.NO_TARGET);
+    } else {
+      println("          val zzNext = zzTransL(zzRowMapL(zzState) + " + charMapLookup("zzInput") + ")");
+    }
+    if (!direct) {
+      println("          if (zzNext == " + DFA.NO_TARGET + ") break");
+      println("          zzState = zzNext");
+      println();
+
+      println("          zzAttributes = zzAttrL(zzState)");
+    }
 
     println("          if ( (zzAttributes & " + FINAL + ") == " + FINAL + " ) {");
 
@@ -934,7 +1283,7 @@ public class ScalaEmitter extends Emitter {
         println("                zzFinL(zzFPos) = ((zzAttrL(zzFState) & 1) == 1)");
         println("                zzInput = codePointAt(zzBufferL, zzFPos, zzMarkedPos)");
         println("                zzFPos += Character.charCount(zzInput)");
-        println("                zzFState = zzTransL( zzRowMapL(zzFState) + zzCMapL(zzInput) )");
+        println("                " + transition("zzFState", "zzInput"));
         println("              }");
         println("              if (zzFState != -1) { zzFinL(zzFPos) = ((zzAttrL(zzFState) & 1) == 1) } "); // incorrect place to increment zzFPos?
         println("              zzFPos += 1");
@@ -948,7 +1297,7 @@ public class ScalaEmitter extends Emitter {
         println("              while (!zzFinL(zzFPos) || (zzAttrL(zzFState) & 1) != 1) {");
         println("                zzInput = codePointBefore(zzBufferL, zzFPos, zzStartRead)");
         println("                zzFPos -= Character.charCount(zzInput)");
-        println("                zzFState = zzTransL( zzRowMapL(zzFState) + zzCMapL(zzInput) )");
+        println("                " + transition("zzFState", "zzInput"));
         println("              }");
         println("              zzMarkedPos = zzFPos");
         println("            }");
@@ -1062,8 +1411,10 @@ public class ScalaEmitter extends Emitter {
     if (scanner.functionName == null)
       scanner.functionName = "yylex";
 
-    reduceColumns();
+    reduceTable();
     findActionStates();
+    findSelfLoops();
+    setupDirect();
 
     emitHeader();
     emitUserCode();
@@ -1087,11 +1438,13 @@ public class ScalaEmitter extends Emitter {
 
     emitActionTable();
 
-    reduceRows();
+    if (needsTransTable()) {
+      if (scanner.comb) packRows();
 
-    emitRowMapArray();
+      emitRowMapArray();
 
-    emitDynamicInit();
+      emitDynamicInit();
+    }
 
     skel.emitNext();
 
@@ -1107,6 +1460,8 @@ public class ScalaEmitter extends Emitter {
 
 //    emitConstructorDecl();
 
+    if (scanner.inMemory) emitInMemoryInput();
+
     emitCharMapInitFunction(packedCharMapPairs);
 
     if (scanner.debugOption) {
@@ -1142,6 +1497,8 @@ public class ScalaEmitter extends Emitter {
 
     emitLexFunctHeader();
 
+    emitSelfLoops();
+
     emitNextInput();
 
     emitGetRowMapNext();
@@ -18,9 +18,6 @@ import java.io.File;
  */
 public final class SemCheck {
 
-  // stored globally since they are used as constants in all checks
-  private static Macros macros;
-  
   /**
    * Performs semantic analysis for all expressions.
    *
@@ -31,7 +28,8 @@ public final class SemCheck {
    * @param f    the spec file containing the rules 
    */
   public static void check(RegExps rs, Macros m, File f) {
-    macros = m;
+    // stored in the generator context since they are used as constants in all checks
+    GeneratorContext.get().macros = m;
     int num = rs.getNum();
     for (int i = 0; i < num; i++) {
       RegExp r = rs.getRegExp(i);
@@ -104,7 +102,7 @@ public final class SemCheck {
     }
 
     case sym.MACROUSE:      
-      return maybeEmtpy(macros.getDefinition((String) ((RegExp1) re).content));
+      return maybeEmtpy(GeneratorContext.get().macros.getDefinition((String) ((RegExp1) re).content));
     }
 
     throw new Error("Unknown expression type "+re.type+" in "+re);   //$NON-NLS-1$ //$NON-NLS-2$
@@ -165,7 +163,7 @@ public final class SemCheck {
       return -1;
 
     case sym.MACROUSE:      
-      return length(macros.getDefinition((String) ((RegExp1) re).content));
+      return length(GeneratorContext.get().macros.getDefinition((String) ((RegExp1) re).content));
     }
 
     throw new Error("Unknown expression type "+re.type+" in "+re);   //$NON-NLS-1$ //$NON-NLS-2$
@@ -216,7 +214,7 @@ public final class SemCheck {
       return false;
 
     case sym.MACROUSE:      
-      return isFiniteChoice(macros.getDefinition((String) ((RegExp1) re).content));
+      return isFiniteChoice(GeneratorContext.get().macros.getDefinition((String) ((RegExp1) re).content));
     }
 
     throw new Error("Unknown expression type "+re.type+" in "+re);   //$NON-NLS-1$ //$NON-NLS-2$
@@ -23,7 +23,9 @@ import java.util.ArrayList;
  *
  * There is a static part (the skeleton code) and state based iterator
  * part to this class. The iterator part is used to emit consecutive skeleton
- * sections to some <code>PrintWriter</code>. 
+ * sections to some <code>PrintWriter</code>. The static skeleton is the
+ * global one used with {@link Options}, each generator run has its own
+ * copy of the skeleton sections (see {@link GeneratorContext}).
  *
  * @see jflex.Emitter
  *
@@ -34,6 +36,9 @@ public class Skeleton {
   
   /** location of default skeleton */
   static final private String DEFAULT_LOC = "jflex/skeleton.default"; //$NON-NLS-1$
+
+  /** location of the skeleton for UTF-8 byte input (%utf8) */
+  static final private String UTF8_LOC = "jflex/skeleton.utf8"; //$NON-NLS-1$
   
   /** expected number of sections in the skeleton file */
   static final private int size = 21;
@@ -43,6 +48,12 @@ public class Skeleton {
 
   /** The skeleton */  
   public static String line[];
+
+  /** The default skeleton, read at most once */
+  private static String defaultLine[];
+
+  /** The skeleton for UTF-8 byte input, read at most once */
+  private static String utf8Line[];
   
   /** initialization */   
   static { readDefault(); }  
@@ -59,14 +70,21 @@ public class Skeleton {
    */
   private PrintWriter out;
 
+  /**
+   * The skeleton sections to emit
+   */
+  private String [] sections;
+
 
   /**
-   * Creates a new skeleton (iterator) instance. 
+   * Creates a new skeleton (iterator) instance for the skeleton
+   * of the current generator run.
    *
    * @param   out  the writer to write the skeleton-parts to
    */
   public Skeleton(PrintWriter out) {
     this.out = out;
+    this.sections = GeneratorContext.get().getSkeleton();
   }
 
 
@@ -74,7 +92,7 @@ public class Skeleton {
    * Emits the next part of the skeleton
    */
   public void emitNext() {
-    out.print( line[pos++] );
+    out.print( sections[pos++] );
   }
 
 
@@ -84,18 +102,108 @@ public class Skeleton {
    * Replaces all occurences of " public " in the skeleton with " private ". 
    */
   public static void makePrivate() {
-    for (int i=0; i < line.length; i++) {
-      line[i] = replace(" public ", " private ", line[i]);   //$NON-NLS-1$ //$NON-NLS-2$
-    }
+    line = makePrivate(line);
   } 
 
 
+  /**
+   * Returns a private version of the skeleton sections.
+   *
+   * @param  sections  the skeleton sections (not modified)
+   * @return the sections with all occurences of " public " replaced 
+   *         by " private "
+   */
+  static String [] makePrivate(String [] sections) {
+    String [] result = new String[sections.length];
+    for (int i=0; i < sections.length; i++) {
+      result[i] = replace(" public ", " private ", sections[i]);   //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return result;
+  }
+
+
+  /**
+   * Returns a version of the skeleton sections for %inmemory, in which
+   * yyreset(Reader) allocates a new buffer if the scanner had no reader,
+   * so that the reader does not write into the caller's input array.
+   * The buffer field has no initializer: in Java the Reader constructors
+   * allocate it, in Scala it is only allocated if there is a reader.
+   *
+   * @param  sections  the skeleton sections (not modified)
+   * @param  scala     true for the Scala skeleton
+   * @return the sections for %inmemory
+   */
+  static String [] makeInMemory(String [] sections, boolean scala) {
+    String reset = scala ? "    zzReader = reader" : "    zzReader = reader;";   //$NON-NLS-1$ //$NON-NLS-2$
+    String alloc = scala ? "new Array[Char](ZZ_BUFFERSIZE)" : "new char[ZZ_BUFFERSIZE];";   //$NON-NLS-1$ //$NON-NLS-2$
+    String check = "    /* without a reader, zzBuffer may be in-memory input of the caller */" + Out.NL +   //$NON-NLS-1$
+                   "    if (zzReader == null)" + Out.NL +   //$NON-NLS-1$
+                   "      zzBuffer = " + alloc + Out.NL;   //$NON-NLS-1$
+    String field = scala ? "var zzBuffer = new Array[Char](ZZ_BUFFERSIZE)" : "zzBuffer[] = new char[ZZ_BUFFERSIZE];";   //$NON-NLS-1$ //$NON-NLS-2$
+    String noField = scala ? "var zzBuffer: Array[Char] = if (in == null) null else new Array[Char](ZZ_BUFFERSIZE)" : "zzBuffer[];";   //$NON-NLS-1$ //$NON-NLS-2$
+    String [] result = new String[sections.length];
+    for (int i=0; i < sections.length; i++) {
+      result[i] = replace(field, noField, sections[i]);
+      result[i] = replace(reset + Out.NL, check + reset + Out.NL, result[i]);
+    }
+    return result;
+  }
+
+
+  /**
+   * Returns a version of the skeleton sections that takes its buffer
+   * from the buffer pool of %pool, and keeps grown buffers on yyreset
+   * up to the size ZZ_POOL_RETAIN. After yyrelease, yyreset takes a new
+   * buffer from the pool.
+   *
+   * @param  sections  the skeleton sections (not modified)
+   * @return the sections for %pool
+   */
+  static String [] makePooled(String [] sections) {
+    String [] result = new String[sections.length];
+    for (int i=0; i < sections.length; i++) {
+      result[i] = replace("new char[ZZ_BUFFERSIZE]", "zzPoolTake()", sections[i]);   //$NON-NLS-1$ //$NON-NLS-2$
+      result[i] = replace("zzBuffer.length > ZZ_BUFFERSIZE", "zzBuffer.length == 0 || zzBuffer.length > ZZ_POOL_RETAIN", result[i]);   //$NON-NLS-1$ //$NON-NLS-2$
+      result[i] = replace("resized down to its initial length, if it has grown", "replaced, if it has grown beyond ZZ_POOL_RETAIN or was released", result[i]);   //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return result;
+  }
+
+
+  /**
+   * Returns a version of the skeleton sections that also resets the
+   * lazy line count of %lazylines on yyreset.
+   *
+   * @param  sections  the skeleton sections (not modified)
+   * @return the sections for %lazylines
+   */
+  static String [] makeLazyLines(String [] sections) {
+    String reset = "yyline = yychar = yycolumn = 0;";   //$NON-NLS-1$
+    String [] result = new String[sections.length];
+    for (int i=0; i < sections.length; i++) {
+      result[i] = replace(reset, reset + Out.NL + "    zzLinePos = zzStartRead;" + Out.NL + "    zzLineR = false;", sections[i]);   //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return result;
+  }
+
+
   /**
    * Reads an external skeleton file for later use with this class.
    * 
    * @param skeletonFile  the file to read (must be != null and readable)
    */
   public static void readSkelFile(File skeletonFile) {
+    line = readSkelLines(skeletonFile);
+  }
+
+
+  /**
+   * Reads the sections of an external skeleton file.
+   * 
+   * @param skeletonFile  the file to read (must be != null and readable)
+   * @return the skeleton sections
+   */
+  static String [] readSkelLines(File skeletonFile) {
     if (skeletonFile == null)
       throw new IllegalArgumentException("Skeleton file must not be null"); //$NON-NLS-1$
 
@@ -108,7 +216,7 @@ public class Skeleton {
 
     try {
       BufferedReader reader = new BufferedReader(new FileReader(skeletonFile));
-      readSkel(reader);
+      return readSkelLines(reader);
     }
     catch (IOException e) {
       Out.error(ErrorMessages.SKEL_IO_ERROR); 
@@ -125,6 +233,19 @@ public class Skeleton {
    * @throws GeneratorException if the number of skeleton sections does not match 
    */
   public static void readSkel(BufferedReader reader) throws IOException {
+    line = readSkelLines(reader);
+  }
+
+
+  /**
+   * Reads the sections of an external skeleton from a BufferedReader.
+   * 
+   * @param  reader             the reader to read from (must be != null)
+   * @return the skeleton sections
+   * @throws IOException        if an IO error occurs
+   * @throws GeneratorException if the number of skeleton sections does not match 
+   */
+  static String [] readSkelLines(BufferedReader reader) throws IOException {
     List<String> lines = new ArrayList<String>();
     StringBuilder section = new StringBuilder();
 
@@ -147,9 +268,7 @@ public class Skeleton {
       throw new GeneratorException();
     }
 
-    line = new String[size];
-    for (int i = 0; i < size; i++)
-      line[i] = lines.get(i);
+    return lines.toArray(new String[size]);
   }
   
   /**
@@ -182,6 +301,42 @@ public class Skeleton {
    * (Re)load the default skeleton. Looks in the current system class path.   
    */
   public static void readDefault() {
+    line = defaultLines();
+  }
+
+
+  /**
+   * Returns the sections of the default skeleton. The skeleton is read 
+   * from the current system class path on the first call.
+   *
+   * @return the default skeleton sections (must not be modified)
+   */
+  static synchronized String [] defaultLines() {
+    if (defaultLine == null) defaultLine = readResource(DEFAULT_LOC);
+    return defaultLine;
+  }
+
+
+  /**
+   * Returns the sections of the skeleton for scanners of UTF-8 encoded
+   * ByteBuffers (%utf8). The skeleton is read from the current system 
+   * class path on the first call.
+   *
+   * @return the UTF-8 skeleton sections (must not be modified)
+   */
+  static synchronized String [] utf8Lines() {
+    if (utf8Line == null) utf8Line = readResource(UTF8_LOC);
+    return utf8Line;
+  }
+
+
+  /**
+   * Reads the sections of a skeleton from the current system class path.
+   *
+   * @param  loc  the location of the skeleton resource
+   * @return the skeleton sections
+   */
+  private static String [] readResource(String loc) {
     ClassLoader l = Skeleton.class.getClassLoader();
     URL url;
     
@@ -190,10 +345,10 @@ public class Skeleton {
      * Use system class loader in this case.
      */
     if (l != null) {
-      url = l.getResource(DEFAULT_LOC); 
+      url = l.getResource(loc); 
     }
     else {
-      url = ClassLoader.getSystemResource(DEFAULT_LOC); 
+      url = ClassLoader.getSystemResource(loc); 
     }
 
     if (url == null) {
@@ -203,7 +358,7 @@ public class Skeleton {
     
     try {
       InputStreamReader reader = new InputStreamReader(url.openStream());
-      readSkel(new BufferedReader(reader)); 
+      return readSkelLines(new BufferedReader(reader));
     } catch (IOException e) {
       Out.error(ErrorMessages.SKEL_IO_ERROR_DEFAULT); 
       throw new GeneratorException();
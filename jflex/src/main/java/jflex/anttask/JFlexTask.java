@@ -224,6 +224,38 @@ public class JFlexTask extends Task {
     /* no-op - this is the only available generation method */
   }
 
+  public void setComb(boolean b) {
+    Options.comb = b;
+  }
+
+  public void setSplitActions(boolean b) {
+    Options.split_actions = b;
+  }
+
+  public void setDfaThreads(int threads) {
+    Options.dfa_threads = threads;
+  }
+
+  public void setDfaMaxStates(int max) {
+    Options.dfa_max_states = max;
+  }
+
+  public void setDfaMaxTime(int seconds) {
+    Options.dfa_max_time = seconds;
+  }
+
+  public void setDfaMaxMemory(int megabytes) {
+    Options.dfa_max_memory = megabytes;
+  }
+
+  public void setCodegen(String method) {
+    Options.direct = "direct".equals(method);
+  }
+
+  public void setDirectMax(int max) {
+    Options.direct_max_states = max;
+  }
+
   public void setDot(boolean b) {
     Options.dot = b;
   }
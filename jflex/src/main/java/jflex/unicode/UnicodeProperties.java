@@ -9,7 +9,9 @@
 
 package jflex.unicode;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Locale;
@@ -34,11 +36,15 @@ public class UnicodeProperties {
   private static final Pattern WORD_SEP_PATTERN = Pattern.compile("[-_\\s()]");
 
   private int maximumCodePoint;
+  private String[] intervals;
+  private Map<String,int[]> propertyValueIndexes
+    = new HashMap<String,int[]>();
   private Map<String,IntCharSet> propertyValueIntervals
     = new HashMap<String,IntCharSet>();
   private String caselessMatchPartitions;
   private int caselessMatchPartitionSize;
-  private IntCharSet caselessMatches[];
+  private Map<Integer,Integer> caselessMatchOffsets;
+  private Map<Integer,IntCharSet> caselessMatches;
 
   /**
    * Unpacks the Unicode data corresponding to the default Unicode version:
@@ -82,7 +88,37 @@ public class UnicodeProperties {
    *  value, if a match exists, and null otherwise.
    */
   public IntCharSet getIntCharSet(String propertyValue) {
-    return propertyValueIntervals.get(normalize(propertyValue));
+    String normalized = normalize(propertyValue);
+    IntCharSet set = propertyValueIntervals.get(normalized);
+    if (null == set) {
+      int[] indexes = propertyValueIndexes.get(normalized);
+      if (null == indexes)
+        return null;
+      set = unpackIntervals(indexes);
+      propertyValueIntervals.put(normalized, set);
+    }
+    return set;
+  }
+
+  /**
+   * Unpacks the union of the given packed interval strings.
+   *
+   * @param indexes The positions of the packed strings in {@link #intervals}
+   * @return The character intervals contained in any of the packed strings
+   */
+  private IntCharSet unpackIntervals(int[] indexes) {
+    IntCharSet set = new IntCharSet();
+    for (int n : indexes) {
+      String propertyIntervals = intervals[n];
+      for (int index = 0 ; index < propertyIntervals.length() ; ) {
+        int start = propertyIntervals.codePointAt(index);
+        index += Character.charCount(start);
+        int end = propertyIntervals.codePointAt(index);
+        index += Character.charCount(end);
+        set.add(new Interval(start, end));
+      }
+    }
+    return set;
   }
 
   /**
@@ -93,7 +129,7 @@ public class UnicodeProperties {
    *  version
    */
   public Set<String> getPropertyValues() {
-    return propertyValueIntervals.keySet();
+    return propertyValueIndexes.keySet();
   }
 
   /**
@@ -101,38 +137,46 @@ public class UnicodeProperties {
    * that are case-insensitively equivalent to the given character,
    * including the given character itself.
    * <p/>
-   * The first call to this method lazily initializes the backing data.
+   * The first call to this method lazily indexes the backing data, each
+   * partition is unpacked when it is first requested.
    *
    * @param c The character for which to return case-insensitive equivalents.
    * @return All case-insensitively equivalent characters, or null
    *  if the given character is case-insensitively equivalent only to itself.
    */
   public IntCharSet getCaselessMatches(int c) {
-    if (null == caselessMatches)
+    if (null == caselessMatchOffsets)
       initCaselessMatches();
-    return caselessMatches[c];
+    Integer offset = caselessMatchOffsets.get(c);
+    if (null == offset)
+      return null;
+    IntCharSet partition = caselessMatches.get(offset);
+    if (null == partition) {
+      partition = new IntCharSet();
+      for (int n = 0, index = offset ; n < caselessMatchPartitionSize ; ++n) {
+        int member = caselessMatchPartitions.codePointAt(index);
+        index += Character.charCount(member);
+        if (member > 0) partition.add(member); // ignore trailing zero padding
+      }
+      caselessMatches.put(offset, partition);
+    }
+    return partition;
   }
 
   /**
-   * Unpacks the caseless match data. Called from
-   * {@link #getCaselessMatches(int)} to lazily initialize.
+   * Indexes the caseless match data by mapping each member of a partition
+   * to the offset of the partition in {@link #caselessMatchPartitions}.
+   * Called from {@link #getCaselessMatches(int)} to lazily initialize.
    */
   private void initCaselessMatches() {
-    caselessMatches = new IntCharSet[maximumCodePoint + 1];
-    int[] members = new int[caselessMatchPartitionSize];
+    caselessMatchOffsets = new HashMap<Integer,Integer>();
+    caselessMatches = new HashMap<Integer,IntCharSet>();
     for (int index = 0 ; index < caselessMatchPartitions.length() ; ) {
-      IntCharSet partition = new IntCharSet();
+      Integer offset = index;
       for (int n = 0 ; n < caselessMatchPartitionSize ; ++n) {
         int c = caselessMatchPartitions.codePointAt(index);
         index += Character.charCount(c);
-        members[n] = c;
-        if (c > 0) partition.add(c); // ignore trailing zero padding
-      }
-      if (partition.containsElements()) {
-        for (int n = 0 ; n < caselessMatchPartitionSize ; ++n) {
-          if (members[n] > 0)
-            caselessMatches[members[n]] = partition;
-        }
+        if (c > 0) caselessMatchOffsets.put(c, offset); // ignore trailing zero padding
       }
     }
   }
@@ -202,8 +246,9 @@ public class UnicodeProperties {
   }
 
   /**
-   * Unpacks data for the selected Unicode version, populating
-   * {@link #propertyValueIntervals}.
+   * Binds data for the selected Unicode version, populating
+   * {@link #propertyValueIndexes}. The packed intervals are only unpacked 
+   * when a property value is requested from {@link #getIntCharSet(String)}.
    *
    * @param propertyValues The list of property values, in same order as the
    *  packed data corresponding to them, in the given intervals, for the
@@ -223,39 +268,40 @@ public class UnicodeProperties {
   private void bind(String[] propertyValues, String[] intervals,
                     String[] propertyValueAliases, int maximumCodePoint,
                     String caselessMatchPartitions, int caselessMatchPartitionSize) {
-    // IntCharSet caselessMatches[] is lazily initialized - don't unpack here
+    // caseless matches and property value intervals are lazily unpacked
     this.caselessMatchPartitions = caselessMatchPartitions;
     this.caselessMatchPartitionSize = caselessMatchPartitionSize;
     this.maximumCodePoint = maximumCodePoint;
+    this.intervals = intervals;
+    Map<String,List<Integer>> indexes = new HashMap<String,List<Integer>>();
     for (int n = 0 ; n < propertyValues.length ; ++n) {
       String propertyValue = propertyValues[n];
-      String propertyIntervals = intervals[n];
-      IntCharSet set = new IntCharSet();
-      for (int index = 0 ; index < propertyIntervals.length() ; ) {
-        int start = propertyIntervals.codePointAt(index);
-        index += Character.charCount(start);
-        int end = propertyIntervals.codePointAt(index);
-        index += Character.charCount(end);
-        set.add(new Interval(start, end));
-      }
-      propertyValueIntervals.put(propertyValue, set);
+      List<Integer> propertyValueIndex = new ArrayList<Integer>(1);
+      propertyValueIndex.add(n);
+      indexes.put(propertyValue, propertyValueIndex);
       if (2 == propertyValue.length()) {
         String singleLetter = propertyValue.substring(0, 1);
-        IntCharSet singleLetterPropValueSet
-          = propertyValueIntervals.get(singleLetter);
-        if (null == singleLetterPropValueSet) {
-          singleLetterPropValueSet = new IntCharSet();
-          propertyValueIntervals.put(singleLetter, singleLetterPropValueSet);
+        List<Integer> singleLetterIndex = indexes.get(singleLetter);
+        if (null == singleLetterIndex) {
+          singleLetterIndex = new ArrayList<Integer>();
+          indexes.put(singleLetter, singleLetterIndex);
         }
-        singleLetterPropValueSet.add(set);
+        singleLetterIndex.add(n);
       }
     }
+    for (Map.Entry<String,List<Integer>> entry : indexes.entrySet()) {
+      List<Integer> index = entry.getValue();
+      int[] packedIndex = new int[index.size()];
+      for (int n = 0 ; n < packedIndex.length ; ++n)
+        packedIndex[n] = index.get(n);
+      propertyValueIndexes.put(entry.getKey(), packedIndex);
+    }
     for (int n = 0 ; n < propertyValueAliases.length ; n += 2) {
       String alias = propertyValueAliases[n];
       String propertyValue = propertyValueAliases[n + 1];
-      IntCharSet targetSet = propertyValueIntervals.get(propertyValue);
-      if (null != targetSet) {
-        propertyValueIntervals.put(alias, targetSet);
+      int[] targetIndex = propertyValueIndexes.get(propertyValue);
+      if (null != targetIndex) {
+        propertyValueIndexes.put(alias, targetIndex);
       }
     }
     bindInvariantIntervals();
@@ -267,9 +313,11 @@ public class UnicodeProperties {
   private void bindInvariantIntervals() {
     IntCharSet asciiSet = new IntCharSet(new Interval(0, 0x7F));
     propertyValueIntervals.put(normalize("ASCII"), asciiSet);
+    propertyValueIndexes.put(normalize("ASCII"), new int[0]);
 
     IntCharSet anySet = new IntCharSet(new Interval(0, maximumCodePoint));
     propertyValueIntervals.put(normalize("Any"), anySet);
+    propertyValueIndexes.put(normalize("Any"), new int[0]);
   }
 
   /**
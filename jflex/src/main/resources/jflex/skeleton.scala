@@ -34,6 +34,9 @@
       the source of the yytext() string */
   var zzBuffer = new Array[Char](ZZ_BUFFERSIZE)
 
+  /** reused view of the matched text in zzBuffer, see yytextview() */
+  var zzTextView: java.nio.CharBuffer = null
+
   /** the textposition at the last accepting state */
   var zzMarkedPos = 0
 
@@ -257,6 +260,109 @@
   def yylength(): Int = zzMarkedPos-zzStartRead
 
 
+  /**
+   * Returns the text matched by the current regular expression as a 
+   * view of the scanner buffer, without copying it.
+   *
+   * The view is reused: it is only valid until the next call of the
+   * scanning method or of any other method that changes the matched
+   * text. Use yytext() or toString() on the view to keep the text.
+   */
+  def yytextview(): CharSequence = {
+    if (zzTextView == null || (zzTextView.array() ne zzBuffer))
+      zzTextView = java.nio.CharBuffer.wrap(zzBuffer)
+    val view: java.nio.Buffer = zzTextView
+    view.limit(zzMarkedPos)
+    view.position(zzStartRead)
+    zzTextView
+  }
+
+
+  /**
+   * Returns the hash code of the matched text without creating a String.
+   *
+   * It is equivalent to yytext().hashCode().
+   */
+  def yyhash(): Int = {
+    var h = 0
+    var i = zzStartRead
+    while (i < zzMarkedPos) {
+      h = 31*h + zzBuffer(i)
+      i += 1
+    }
+    h
+  }
+
+
+  /**
+   * Returns true if the matched text consists of the same characters 
+   * as <tt>s</tt>, without creating a String.
+   *
+   * It is equivalent to yytext().contentEquals(s).
+   */
+  def yyequals(s: CharSequence): Boolean = {
+    val length = zzMarkedPos-zzStartRead
+    if (s.length() != length) return false
+    var i = 0
+    while (i < length) {
+      if (zzBuffer(zzStartRead+i) != s.charAt(i)) return false
+      i += 1
+    }
+    true
+  }
+
+
+  /**
+   * Compares the matched text lexicographically to <tt>s</tt>, 
+   * without creating a String.
+   *
+   * It has the same sign as yytext().compareTo(s.toString()).
+   */
+  def yycompare(s: CharSequence): Int = {
+    val length = zzMarkedPos-zzStartRead
+    val n = math.min(length, s.length())
+    var i = 0
+    while (i < n) {
+      val diff = zzBuffer(zzStartRead+i) - s.charAt(i)
+      if (diff != 0) return diff
+      i += 1
+    }
+    length - s.length()
+  }
+
+
+  /**
+   * Returns the String in the symbol table <tt>table</tt> that is equal 
+   * to the matched text, and adds a new one if there is none. Only 
+   * the first occurrence of a text creates a String.
+   *
+   * <tt>table</tt> is an open addressing hash table with linear probing
+   * on yyhash(), filled only by this method. Its length must be a power
+   * of two. If the table is full, new texts are returned without adding 
+   * them.
+   *
+   * @param table  the symbol table, null entries are free
+   *
+   * @return the String in the table that equals yytext()
+   */
+  def yyintern(table: Array[String]): String = {
+    val mask = table.length - 1
+    var i = yyhash() & mask
+    var n = 0
+    while (n < table.length) {
+      val s = table(i)
+      if (s == null) {
+        table(i) = yytext()
+        return table(i)
+      }
+      if (yyequals(s)) return s
+      i = (i + 1) & mask
+      n += 1
+    }
+    yytext()
+  }
+
+
   /**
    * Reports an error that occured while scanning.
    *
@@ -106,4 +106,25 @@ public class CharClassesTest extends TestCase {
     assertEquals("{ ['A'-'C']['H'-'O']['a'-'c']['h'-'o'][304-305][8490] }",
                  set.getCaseless(unicodeProperties).toString());
   }
+
+  public void testPartition() {
+    CharClasses classes = new CharClasses();
+    classes.init(127, null);
+    classes.makeClass(new IntCharSet(new Interval('a','z')), false);
+    classes.makeClass(new IntCharSet(new Interval('d','f')), false);
+    IntCharSet set = new IntCharSet(new Interval('0','9'));
+    set.add('e');
+    classes.makeClass(set, false);
+
+    // split off parts get the next codes, in the order of the classes split
+    assertEquals(5, classes.getNumClasses());
+    assertEquals(0, classes.getClassCode('!'));
+    assertEquals(1, classes.getClassCode('a'));
+    assertEquals(1, classes.getClassCode('z'));
+    assertEquals(2, classes.getClassCode('d'));
+    assertEquals(2, classes.getClassCode('f'));
+    assertEquals(3, classes.getClassCode('5'));
+    assertEquals(4, classes.getClassCode('e'));
+    assertEquals("{ ['d']['f'] }", classes.toString(2));
+  }
 }
@@ -20,4 +20,26 @@ public class IntCharSetTest extends TestCase {
     assertTrue(original_a + " + " + b + " should be " + b 
                + " instead of " + a, a.equals(b));
   }
+
+  public void testAddMerge() {
+    IntCharSet a = new IntCharSet();
+    for (int c = 'a'; c <= 'z'; c += 5) a.add(new Interval(c, c+1));
+    IntCharSet b = new IntCharSet();
+    for (int c = 'c'; c <= 'z'; c += 5) b.add(new Interval(c, c+1));
+    b.add(a);
+    assertEquals("{ ['a'-'d']['f'-'i']['k'-'n']['p'-'s']['u'-'x']['z'-'{'] }", b.toString());
+    b.add(new Interval('e', 'o'));
+    assertEquals("{ ['a'-'s']['u'-'x']['z'-'{'] }", b.toString());
+  }
+
+  public void testSub() {
+    IntCharSet a = new IntCharSet(new Interval('a', 'z'));
+    IntCharSet b = new IntCharSet(new Interval('c', 'e'));
+    b.add('x');
+    b.add('z');
+    a.sub(b);
+    assertEquals("{ ['a'-'b']['f'-'w']['y'] }", a.toString());
+    assertFalse(a.contains('d'));
+    assertTrue(a.contains('y'));
+  }
 }
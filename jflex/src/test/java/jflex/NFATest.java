@@ -0,0 +1,77 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * JFlex 1.7.0-SNAPSHOT                                                    *
+ * Copyright (C) 1998-2015  Gerwin Klein <lsf@jflex.de>                    *
+ * All rights reserved.                                                    *
+ *                                                                         *
+ * License: BSD                                                            *
+ *                                                                         *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+
+package jflex;
+
+import java.io.File;
+import java.io.FileReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the subset construction in NFA.getDFA
+ *
+ * @version JFlex 1.7.0-SNAPSHOT
+ */
+public class NFATest extends TestCase {
+
+  private final String DIR_RESOURCES="src/test/resources";
+
+  /**
+   * Constructor for NFATest.
+   * @param name  the test name
+   */
+  public NFATest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+    Options.setDefaults();
+  }
+
+  protected void tearDown() throws Exception {
+    Options.setDefaults();
+    super.tearDown();
+  }
+
+  /**
+   * Builds the DFA of a specification with the given number of
+   * threads for the subset construction.
+   */
+  private DFA buildDFA(String file, int threads) throws Exception {
+    Options.verbose = false;
+    Options.progress = false;
+    Options.dfa_threads = threads;
+
+    GeneratorContext previous = GeneratorContext.enter(GeneratorContext.fromOptions());
+    FileReader reader = new FileReader(new File(DIR_RESOURCES+file));
+    try {
+      LexScan scanner = new LexScan(reader);
+      scanner.setFile(new File(DIR_RESOURCES+file));
+      LexParse parser = new LexParse(scanner);
+      NFA nfa = (NFA) parser.parse().value;
+      return nfa.getDFA();
+    }
+    finally {
+      reader.close();
+      GeneratorContext.enter(previous);
+    }
+  }
+
+  public void testParallelDFA() throws Exception {
+    DFA serial = buildDFA("/jflex/LexScan-test.flex", 1);
+    DFA parallel = buildDFA("/jflex/LexScan-test.flex", 4);
+
+    // more states than one block of the parallel construction
+    assertTrue(serial.numStates > 4 * 64);
+    assertEquals(serial.numStates, parallel.numStates);
+    assertEquals(serial.toString(), parallel.toString());
+  }
+}